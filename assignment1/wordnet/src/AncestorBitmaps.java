@@ -0,0 +1,360 @@
+import java.util.Arrays;
+
+/**
+ * AncestorBitmaps class.
+ * <p>
+ * The transitive ancestor set of every synset of a rooted DAG, each stored as
+ * a compressed bitmap, for queries that only ask which ancestors two synsets
+ * share and not how far away they are: whether they share one at or below a
+ * given depth, and which shared one is deepest. Both are a single bitmap
+ * intersection, without any BFS.
+ * <p>
+ * Vertices are ranked by depth, ties broken by topological order, so the root
+ * has rank 0 and every depth is a contiguous range of ranks. The deepest common
+ * ancestor is then the largest rank in the intersection, and a depth bound is
+ * a lower bound on ranks.
+ * <p>
+ * Bitmaps are Roaring-style: the rank space is cut into chunks of 2^16, and
+ * each non-empty chunk of a set is a container holding the low 16 bits either
+ * as a sorted char array (up to {@link #ARRAY_MAX} values) or as a 1024-word
+ * bitmap. Containers of all vertices live in shared pools, so there is no
+ * object per vertex. WordNet ancestor sets are small, so nearly every container
+ * is an array of a few dozen chars.
+ */
+public final class AncestorBitmaps {
+    /**
+     * Containers with more values than this are stored as bitmaps.
+     */
+    static final int ARRAY_MAX = 4096;
+    private static final int BITMAP_WORDS = 1024;
+
+    private final int[] rank;
+    private final int[] vertexAt;
+
+    /**
+     * First rank of each depth, plus V at the end.
+     */
+    private final int[] depthStart;
+
+    /**
+     * Containers of v are {@code containerOffsets[v] .. containerOffsets[v + 1])};
+     * container c holds high bits {@code keys[c]} and {@code cards[c]} values,
+     * starting at {@code starts[c]} in {@code arrays} if it is an array
+     * container, or at word {@code starts[c]} of {@code bitmaps} otherwise.
+     */
+    private final int[] containerOffsets;
+    private final char[] keys;
+    private final int[] cards;
+    private final int[] starts;
+    private final char[] arrays;
+    private final long[] bitmaps;
+
+    /**
+     * Builds the ancestor bitmap of every vertex, one BFS per vertex.
+     * 
+     * @param G   - a rooted DAG
+     * @param dag - structure of G
+     */
+    AncestorBitmaps(CsrDigraph G, RootedDag dag) {
+        this(G, dag, null, null);
+    }
+
+    /**
+     * Builds the ancestor bitmap of every vertex of a rooted DAG that grew from
+     * the one {@code previous} was built on. Only stale and new vertices run a
+     * BFS; the sets of the others are unchanged and are copied over, with their
+     * ranks mapped to the new ones.
+     * 
+     * @param G        - a rooted DAG
+     * @param dag      - structure of G
+     * @param previous - bitmaps of an earlier version of G, or null
+     * @param stale    - stale[v] is true if the ancestors of v changed since
+     *                 previous was built; may be null if previous is null
+     */
+    AncestorBitmaps(CsrDigraph G, RootedDag dag, AncestorBitmaps previous, boolean[] stale) {
+        final int n = G.V();
+        final int[] offsets = G.offsets, targets = G.targets;
+
+        // rank by depth; a counting sort over the topological order keeps it as the tie-break
+        this.depthStart = new int[dag.height() + 2];
+        for (int v = 0; v < n; v++) {
+            this.depthStart[dag.depth(v) + 1]++;
+        }
+        for (int d = 0; d <= dag.height(); d++) {
+            this.depthStart[d + 1] += this.depthStart[d];
+        }
+        int[] next = Arrays.copyOf(this.depthStart, this.depthStart.length - 1);
+        this.rank = new int[n];
+        this.vertexAt = new int[n];
+        for (int i = 0; i < n; i++) {
+            int v = dag.order(i);
+            this.rank[v] = next[dag.depth(v)]++;
+            this.vertexAt[this.rank[v]] = v;
+        }
+
+        /*
+         * ancestors of a vertex that is not stale are not stale either, and those
+         * keep their depth and relative topological order, so mapping their ranks
+         * keeps each copied set sorted
+         */
+        final int kept = (previous == null) ? 0 : previous.rank.length;
+        int[] rankOf = new int[kept];
+        for (int r = 0; r < kept; r++) {
+            rankOf[r] = this.rank[previous.vertexAt[r]];
+        }
+
+        this.containerOffsets = new int[n + 1];
+        int[] stamp = new int[n];
+        int[] queue = new int[n];
+        int[] ranks = new int[n];
+        Builder builder = new Builder(n);
+        for (int v = 0; v < n; v++) {
+            if (v < kept && !stale[v]) {
+                int size = previous.ranks(v, ranks);
+                for (int i = 0; i < size; i++) {
+                    ranks[i] = rankOf[ranks[i]];
+                }
+                builder.add(ranks, size);
+                this.containerOffsets[v + 1] = builder.containers;
+                continue;
+            }
+            int head = 0, tail = 0;
+            stamp[v] = v + 1;
+            queue[tail++] = v;
+            while (head < tail) {
+                int x = queue[head++];
+                for (int e = offsets[x]; e < offsets[x + 1]; e++) {
+                    int y = targets[e];
+                    if (stamp[y] != v + 1) {
+                        stamp[y] = v + 1;
+                        queue[tail++] = y;
+                    }
+                }
+            }
+            for (int i = 0; i < tail; i++) {
+                ranks[i] = this.rank[queue[i]];
+            }
+            Arrays.sort(ranks, 0, tail);
+            builder.add(ranks, tail);
+            this.containerOffsets[v + 1] = builder.containers;
+        }
+
+        this.keys = Arrays.copyOf(builder.keys, builder.containers);
+        this.cards = Arrays.copyOf(builder.cards, builder.containers);
+        this.starts = Arrays.copyOf(builder.starts, builder.containers);
+        this.arrays = Arrays.copyOf(builder.arrays, builder.arraySize);
+        this.bitmaps = Arrays.copyOf(builder.bitmaps, builder.bitmapSize);
+    }
+
+    /**
+     * Growable pools the containers are appended to while building.
+     */
+    private static final class Builder {
+        private char[] keys;
+        private int[] cards;
+        private int[] starts;
+        private char[] arrays;
+        private long[] bitmaps = new long[0];
+        private int containers;
+        private int arraySize;
+        private int bitmapSize;
+
+        private Builder(int n) {
+            this.keys = new char[Math.max(16, n)];
+            this.cards = new int[this.keys.length];
+            this.starts = new int[this.keys.length];
+            this.arrays = new char[Math.max(16, 8 * n)];
+        }
+
+        /**
+         * Appends the containers of one sorted set.
+         */
+        private void add(int[] ranks, int size) {
+            for (int i = 0; i < size;) {
+                int key = ranks[i] >>> 16;
+                int j = i;
+                while (j < size && (ranks[j] >>> 16) == key) {
+                    j++;
+                }
+                if (this.containers == this.keys.length) {
+                    this.keys = Arrays.copyOf(this.keys, 2 * this.containers);
+                    this.cards = Arrays.copyOf(this.cards, 2 * this.containers);
+                    this.starts = Arrays.copyOf(this.starts, 2 * this.containers);
+                }
+                int c = this.containers++;
+                this.keys[c] = (char) key;
+                this.cards[c] = j - i;
+                if (j - i <= ARRAY_MAX) {
+                    if (this.arraySize + (j - i) > this.arrays.length) {
+                        int grown = Math.max(this.arraySize + (j - i), 2 * this.arrays.length);
+                        this.arrays = Arrays.copyOf(this.arrays, grown);
+                    }
+                    this.starts[c] = this.arraySize;
+                    for (int k = i; k < j; k++) {
+                        this.arrays[this.arraySize++] = (char) ranks[k];
+                    }
+                } else {
+                    if (this.bitmapSize + BITMAP_WORDS > this.bitmaps.length) {
+                        int grown = Math.max(BITMAP_WORDS, 2 * this.bitmaps.length);
+                        this.bitmaps = Arrays.copyOf(this.bitmaps, grown);
+                    }
+                    this.starts[c] = this.bitmapSize;
+                    for (int k = i; k < j; k++) {
+                        int low = ranks[k] & 0xffff;
+                        this.bitmaps[this.bitmapSize + (low >>> 6)] |= 1L << low;
+                    }
+                    this.bitmapSize += BITMAP_WORDS;
+                }
+                i = j;
+            }
+        }
+    }
+
+    /**
+     * Writes the ranks in the ancestor set of v to {@code out}, in increasing
+     * order.
+     * 
+     * @return number of ranks written
+     */
+    private int ranks(int v, int[] out) {
+        int size = 0;
+        for (int c = this.containerOffsets[v]; c < this.containerOffsets[v + 1]; c++) {
+            final int high = this.keys[c] << 16;
+            if (this.cards[c] <= ARRAY_MAX) {
+                for (int i = this.starts[c]; i < this.starts[c] + this.cards[c]; i++) {
+                    out[size++] = high | this.arrays[i];
+                }
+            } else {
+                for (int word = 0; word < BITMAP_WORDS; word++) {
+                    for (long bits = this.bitmaps[this.starts[c] + word]; bits != 0; bits &= bits - 1) {
+                        out[size++] = high | (word << 6) | Long.numberOfTrailingZeros(bits);
+                    }
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Approximate heap used by the bitmaps and rank tables.
+     * 
+     * @return size of the arrays in bytes
+     */
+    public long memoryBytes() {
+        return 4L * (this.rank.length + this.vertexAt.length + this.containerOffsets.length)
+                + 10L * this.keys.length + 2L * this.arrays.length + 8L * this.bitmaps.length;
+    }
+
+    /**
+     * Whether v and w share an ancestor (possibly one of themselves) whose depth
+     * is at least {@code depth}.
+     * 
+     * @param v     - a vertex in digraph
+     * @param w     - a vertex in digraph
+     * @param depth - minimum depth of the common ancestor
+     * @return true if such a common ancestor exists
+     */
+    public boolean sharesAncestorBelow(int v, int w, int depth) {
+        if (depth < 0) {
+            depth = 0;
+        }
+        if (depth >= this.depthStart.length - 1) {
+            return false;
+        }
+        return this.maxCommonRank(v, w, this.depthStart[depth]) != -1;
+    }
+
+    /**
+     * A deepest common ancestor of v and w, i.e. one whose distance to the root
+     * is largest. This is not necessarily the shortest common ancestor.
+     * 
+     * @param v - a vertex in digraph
+     * @param w - a vertex in digraph
+     * @return a deepest common ancestor of v and w
+     */
+    public int deepestCommonAncestor(int v, int w) {
+        int r = this.maxCommonRank(v, w, 0);
+        return (r == -1) ? -1 : this.vertexAt[r];
+    }
+
+    /**
+     * Largest rank at least {@code from} in both ancestor sets, scanning the
+     * containers of v and w from the highest key down.
+     * 
+     * @return the rank; -1 if there is none
+     */
+    private int maxCommonRank(int v, int w, int from) {
+        final int fromKey = from >>> 16;
+        int i = this.containerOffsets[v + 1] - 1, j = this.containerOffsets[w + 1] - 1;
+        final int firstV = this.containerOffsets[v], firstW = this.containerOffsets[w];
+        while (i >= firstV && j >= firstW) {
+            int keyV = this.keys[i], keyW = this.keys[j];
+            if (keyV < fromKey || keyW < fromKey) {
+                return -1;
+            }
+            if (keyV > keyW) {
+                i--;
+            } else if (keyW > keyV) {
+                j--;
+            } else {
+                int minLow = (keyV == fromKey) ? (from & 0xffff) : 0;
+                int low = this.maxCommon(i, j, minLow);
+                if (low != -1) {
+                    return (keyV << 16) | low;
+                }
+                i--;
+                j--;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Largest value at least {@code minLow} in both containers a and b.
+     * 
+     * @return the low 16 bits of the value; -1 if there is none
+     */
+    private int maxCommon(int a, int b, int minLow) {
+        boolean arrayA = this.cards[a] <= ARRAY_MAX, arrayB = this.cards[b] <= ARRAY_MAX;
+        if (arrayA && arrayB) {
+            int i = this.starts[a] + this.cards[a] - 1, j = this.starts[b] + this.cards[b] - 1;
+            while (i >= this.starts[a] && j >= this.starts[b]) {
+                char x = this.arrays[i], y = this.arrays[j];
+                if (x < minLow || y < minLow) {
+                    return -1;
+                }
+                if (x == y) {
+                    return x;
+                } else if (x > y) {
+                    i--;
+                } else {
+                    j--;
+                }
+            }
+            return -1;
+        }
+        if (arrayA || arrayB) {
+            int array = arrayA ? a : b, bitmap = arrayA ? b : a;
+            for (int i = this.starts[array] + this.cards[array] - 1; i >= this.starts[array]; i--) {
+                char x = this.arrays[i];
+                if (x < minLow) {
+                    return -1;
+                }
+                if ((this.bitmaps[this.starts[bitmap] + (x >>> 6)] & (1L << x)) != 0) {
+                    return x;
+                }
+            }
+            return -1;
+        }
+        for (int word = BITMAP_WORDS - 1; word >= (minLow >>> 6); word--) {
+            long both = this.bitmaps[this.starts[a] + word] & this.bitmaps[this.starts[b] + word];
+            if (word == (minLow >>> 6)) {
+                both &= -1L << minLow; // drop values below minLow in the first word
+            }
+            if (both != 0) {
+                return (word << 6) | (63 - Long.numberOfLeadingZeros(both));
+            }
+        }
+        return -1;
+    }
+}
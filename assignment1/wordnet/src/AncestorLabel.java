@@ -0,0 +1,125 @@
+import java.util.Arrays;
+
+/**
+ * AncestorLabel class.
+ * <p>
+ * Immutable distances from a set of source vertices to every one of their
+ * ancestors (the sources included), sorted by ancestor id. It is the complete
+ * BFS tree of the sources with the tree structure dropped, so one label can be
+ * compared against many others: the shortest ancestral path between two source
+ * sets is a linear merge of their labels, with no further graph traversal.
+ */
+public final class AncestorLabel {
+    private final int[] ancestors;
+    private final int[] dists;
+
+    /**
+     * Creates a label; takes ownership of both arrays.
+     * 
+     * @param ancestors - ancestor ids, strictly increasing
+     * @param dists     - distance from the closest source to each ancestor
+     */
+    AncestorLabel(int[] ancestors, int[] dists) {
+        this.ancestors = ancestors;
+        this.dists = dists;
+    }
+
+    /**
+     * @return number of ancestors, including the sources themselves
+     */
+    public int size() {
+        return this.ancestors.length;
+    }
+
+    /**
+     * Distance from the sources to the ancestor x.
+     * 
+     * @param x - a vertex in digraph
+     * @return length of the shortest directed path from a source to x; -1 if x is
+     *         not an ancestor
+     */
+    public int distTo(int x) {
+        int i = Arrays.binarySearch(this.ancestors, x);
+        return (i >= 0) ? this.dists[i] : -1;
+    }
+
+    /**
+     * Length of the shortest ancestral path between the sources of this label and
+     * the sources of {@code that}.
+     * 
+     * @param that - another label over the same digraph
+     * @return length of shortest ancestral path; -1 if no path exists
+     */
+    public int length(AncestorLabel that) {
+        int i = this.merge(that);
+        return (i == -1) ? -1 : this.dists[i] + that.distTo(this.ancestors[i]);
+    }
+
+    /**
+     * Common ancestor in the shortest ancestral path between the sources of this
+     * label and the sources of {@code that}.
+     * 
+     * @param that - another label over the same digraph
+     * @return the shortest common ancestor; -1 if no path exists
+     */
+    public int ancestor(AncestorLabel that) {
+        int i = this.merge(that);
+        return (i == -1) ? -1 : this.ancestors[i];
+    }
+
+    /**
+     * A deepest common ancestor of the sources of this label and the sources of
+     * {@code that}, found by the same merge. Used when no
+     * {@link AncestorBitmaps} are built.
+     * 
+     * @param that - another label over the same digraph
+     * @param dag  - depths of the digraph
+     * @return a common ancestor of largest depth; -1 if there is none
+     */
+    int deepest(AncestorLabel that, RootedDag dag) {
+        int i = 0, j = 0;
+        int deepest = -1;
+        while (i < this.ancestors.length && j < that.ancestors.length) {
+            int x = this.ancestors[i], y = that.ancestors[j];
+            if (x < y) {
+                i++;
+            } else if (x > y) {
+                j++;
+            } else {
+                if (deepest == -1 || dag.depth(x) > dag.depth(deepest)) {
+                    deepest = x;
+                }
+                i++;
+                j++;
+            }
+        }
+        return deepest;
+    }
+
+    /**
+     * Merges both labels.
+     * 
+     * @return index in this label of the shortest common ancestor; -1 if none
+     */
+    private int merge(AncestorLabel that) {
+        int i = 0, j = 0;
+        int best = Integer.MAX_VALUE;
+        int bestIndex = -1;
+        while (i < this.ancestors.length && j < that.ancestors.length) {
+            int x = this.ancestors[i], y = that.ancestors[j];
+            if (x < y) {
+                i++;
+            } else if (x > y) {
+                j++;
+            } else {
+                if (this.dists[i] + that.dists[j] < best) {
+                    best = this.dists[i] + that.dists[j];
+                    bestIndex = i;
+                }
+                i++;
+                j++;
+            }
+        }
+        return bestIndex;
+    }
+}
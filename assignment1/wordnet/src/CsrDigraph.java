@@ -0,0 +1,245 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import edu.princeton.cs.algs4.Digraph;
+
+/**
+ * CsrDigraph class.
+ * <p>
+ * An immutable digraph in compressed sparse row form. The vertices adjacent
+ * from v are {@code targets[offsets[v] .. offsets[v + 1])}, so a whole graph is
+ * two flat int arrays instead of one linked list of boxed integers per vertex.
+ * Traversals read the arrays directly, which keeps the BFS inner loop free of
+ * pointer chasing and allocation.
+ */
+public final class CsrDigraph {
+    private final int vertices;
+
+    /**
+     * {@code offsets[v]} is the index in {@code targets} of the first edge out of
+     * v; {@code offsets[V]} is the number of edges.
+     */
+    final int[] offsets;
+    final int[] targets;
+
+    /**
+     * Creates a copy of an algs4 digraph.
+     * 
+     * @param G - a Digraph
+     */
+    public CsrDigraph(Digraph G) {
+        if (G == null) {
+            throw new IllegalArgumentException("digraph cannot be null!");
+        }
+        this.vertices = G.V();
+        this.offsets = new int[this.vertices + 1];
+        this.targets = new int[G.E()];
+        int e = 0;
+        for (int v = 0; v < this.vertices; v++) {
+            this.offsets[v] = e;
+            for (int w : G.adj(v)) {
+                this.targets[e++] = w;
+            }
+        }
+        this.offsets[this.vertices] = e;
+    }
+
+    /**
+     * Creates a digraph from an edge list, where edge i is {@code from[i]→to[i]}.
+     * Edges out of a vertex keep their relative order.
+     * 
+     * @param V     - number of vertices
+     * @param from  - tail of each edge
+     * @param to    - head of each edge
+     * @param edges - number of edges used from the two arrays
+     */
+    public CsrDigraph(int V, int[] from, int[] to, int edges) {
+        if (V < 0) {
+            throw new IllegalArgumentException("number of vertices cannot be negative!");
+        }
+        this.vertices = V;
+        this.offsets = new int[V + 1];
+        this.targets = new int[edges];
+
+        // counting sort of the edges by tail vertex
+        for (int i = 0; i < edges; i++) {
+            this.validateVertex(from[i]);
+            this.validateVertex(to[i]);
+            this.offsets[from[i] + 1]++;
+        }
+        for (int v = 0; v < V; v++) {
+            this.offsets[v + 1] += this.offsets[v];
+        }
+        int[] next = new int[V];
+        for (int i = 0; i < edges; i++) {
+            int v = from[i];
+            this.targets[this.offsets[v] + next[v]++] = to[i];
+        }
+    }
+
+    /**
+     * Creates a digraph over existing CSR arrays, which it takes ownership of.
+     * 
+     * @param offsets - index of the first edge out of each vertex, plus the edge
+     *                count at the end
+     * @param targets - head of each edge
+     * @throws IllegalArgumentException if the arrays are not a valid CSR digraph
+     */
+    CsrDigraph(int[] offsets, int[] targets) {
+        if (offsets.length == 0 || offsets[0] != 0 || offsets[offsets.length - 1] != targets.length) {
+            throw new IllegalArgumentException("offsets do not match targets!");
+        }
+        this.vertices = offsets.length - 1;
+        this.offsets = offsets;
+        this.targets = targets;
+        for (int v = 0; v < this.vertices; v++) {
+            if (offsets[v] > offsets[v + 1]) {
+                throw new IllegalArgumentException("offsets must be non-decreasing!");
+            }
+        }
+        for (int w : targets) {
+            this.validateVertex(w);
+        }
+    }
+
+    /**
+     * @return number of vertices
+     */
+    public int V() {
+        return this.vertices;
+    }
+
+    /**
+     * @return number of edges
+     */
+    public int E() {
+        return this.targets.length;
+    }
+
+    /**
+     * @return CRC32 of the offsets and targets, which tells different digraphs
+     *         apart
+     */
+    long crc() {
+        ByteBuffer bytes = ByteBuffer.allocate(4 * (this.offsets.length + this.targets.length));
+        bytes.asIntBuffer().put(this.offsets).put(this.targets);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    /**
+     * @param v - a vertex
+     * @return number of edges out of v
+     */
+    public int outdegree(int v) {
+        this.validateVertex(v);
+        return this.offsets[v + 1] - this.offsets[v];
+    }
+
+    /**
+     * Vertex at the head of the i-th edge out of v.
+     * 
+     * @param v - a vertex
+     * @param i - index of the edge, between 0 and outdegree(v) - 1
+     * @return the vertex adjacent from v through that edge
+     */
+    public int adj(int v, int i) {
+        return this.targets[this.offsets[v] + i];
+    }
+
+    /**
+     * Copy of this digraph with one more edge v→w, placed after the other edges
+     * of v.
+     * 
+     * @param v - tail vertex
+     * @param w - head vertex
+     * @return a new CsrDigraph
+     */
+    CsrDigraph withEdge(int v, int w) {
+        this.validateVertex(v);
+        this.validateVertex(w);
+        final int at = this.offsets[v + 1];
+        int[] offsets = this.offsets.clone();
+        for (int x = v + 1; x < offsets.length; x++) {
+            offsets[x]++;
+        }
+        int[] targets = new int[this.targets.length + 1];
+        System.arraycopy(this.targets, 0, targets, 0, at);
+        targets[at] = w;
+        System.arraycopy(this.targets, at, targets, at + 1, this.targets.length - at);
+        return new CsrDigraph(offsets, targets);
+    }
+
+    /**
+     * Copy of this digraph with one more vertex V and edges from it to each of
+     * {@code adj}.
+     * 
+     * @param adj - heads of the new vertex's edges
+     * @return a new CsrDigraph with V + 1 vertices
+     */
+    CsrDigraph withVertex(int[] adj) {
+        for (int w : adj) {
+            this.validateVertex(w);
+        }
+        int[] offsets = Arrays.copyOf(this.offsets, this.offsets.length + 1);
+        offsets[this.vertices + 1] = this.targets.length + adj.length;
+        int[] targets = Arrays.copyOf(this.targets, this.targets.length + adj.length);
+        System.arraycopy(adj, 0, targets, this.targets.length, adj.length);
+        return new CsrDigraph(offsets, targets);
+    }
+
+    /**
+     * Copy of this digraph with one more vertex V and edges to it from each of
+     * {@code tails}, each placed after the other edges of its tail. The arrays
+     * are copied once, however many tails there are.
+     * 
+     * @param tails - tails of the new vertex's incoming edges
+     * @return a new CsrDigraph with V + 1 vertices
+     */
+    CsrDigraph withVertexFrom(int[] tails) {
+        int[] extra = new int[this.vertices];
+        for (int v : tails) {
+            this.validateVertex(v);
+            extra[v]++;
+        }
+        int[] offsets = new int[this.vertices + 2];
+        int[] targets = new int[this.targets.length + tails.length];
+        int e = 0;
+        for (int v = 0; v < this.vertices; v++) {
+            offsets[v] = e;
+            int count = this.offsets[v + 1] - this.offsets[v];
+            System.arraycopy(this.targets, this.offsets[v], targets, e, count);
+            e += count;
+            for (int k = 0; k < extra[v]; k++) {
+                targets[e++] = this.vertices;
+            }
+        }
+        offsets[this.vertices] = e;
+        offsets[this.vertices + 1] = e;
+        return new CsrDigraph(offsets, targets);
+    }
+
+    /**
+     * Returns the reverse of this digraph, with every edge v→w turned into w→v.
+     * 
+     * @return a new CsrDigraph with all edges reversed
+     */
+    public CsrDigraph reverse() {
+        int[] from = new int[this.targets.length];
+        for (int v = 0; v < this.vertices; v++) {
+            for (int e = this.offsets[v]; e < this.offsets[v + 1]; e++) {
+                from[e] = v;
+            }
+        }
+        return new CsrDigraph(this.vertices, this.targets, from, this.targets.length);
+    }
+
+    private void validateVertex(int v) {
+        if (v < 0 || v >= this.vertices) {
+            throw new IllegalArgumentException(
+                    String.format("vertex %d is not between 0 and %d", v, this.vertices - 1));
+        }
+    }
+}
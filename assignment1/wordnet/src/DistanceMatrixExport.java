@@ -0,0 +1,341 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+import edu.princeton.cs.algs4.StdOut;
+
+/**
+ * DistanceMatrixExport class.
+ * <p>
+ * Writes the full matrix of {@link WordNet#distance} between N nouns to a file,
+ * without ever holding it in memory. Rows are computed in tiles of
+ * {@code tileRows} rows, and tiles run in parallel. Each row costs one
+ * {@link Neighborhood} search from the row noun's synsets, which reaches every
+ * synset at its exact ancestral distance in O(V + E); the row is then one
+ * lookup per column noun. Each finished tile is written straight into its own
+ * memory-mapped region of the output file.
+ * <p>
+ * A distance is at most twice the height of the digraph, so cells take one byte
+ * when that fits below 255 (always the case for WordNet) and two bytes
+ * otherwise. The all-ones value marks a pair without a common ancestor. The
+ * file layout, big-endian, is:
+ * 
+ * <pre>
+ * int      magic "WNDM"
+ * int      format version
+ * int      N, number of nouns
+ * int      bytes per cell, 1 or 2
+ * int      rows per tile
+ * int      T, number of tiles
+ * long     CRC32 of the noun list
+ * int      V, number of synsets of the digraph
+ * int      E, number of hypernym edges
+ * long     CRC32 of the digraph's edges
+ * byte[T]  1 if the tile is complete, 0 otherwise
+ * padding up to {@link #HEADER_ALIGN} bytes
+ * N * N cells, row by row
+ * </pre>
+ * 
+ * The nouns are written one per line to a {@code .nouns} file next to it. A
+ * tile is marked complete only after its cells are forced to disk, so running
+ * the export again on the same file with the same nouns and the same digraph
+ * resumes after an interruption and skips the complete tiles. Any other
+ * non-empty file, including an export of other nouns or another digraph, is
+ * only replaced when asked to.
+ */
+public final class DistanceMatrixExport {
+    private static final int MAGIC = 0x574e444d; // "WNDM"
+    private static final int VERSION = 2;
+    private static final int FLAGS = 48;
+    static final int HEADER_ALIGN = 4096;
+
+    private final List<String> nouns;
+    private final int[][] ids;
+    private final Neighborhood neighborhood;
+    private final int cellBytes;
+    private final int tileRows;
+    private final int graphVertices;
+    private final int graphEdges;
+    private final long graphCrc;
+
+    /**
+     * Receives progress after every tile.
+     */
+    public interface Progress {
+        /**
+         * @param done       - tiles complete, including those from earlier runs
+         * @param tiles      - total number of tiles
+         * @param rowsPerSec - rows computed per second in this run
+         */
+        void report(int done, int tiles, double rowsPerSec);
+    }
+
+    /**
+     * Prepares an export over a fixed list of nouns. Later updates to the WordNet
+     * do not affect it.
+     * 
+     * @param wordnet  - the WordNet
+     * @param nouns    - distinct WordNet nouns, in row and column order
+     * @param tileRows - rows per tile
+     * @throws IllegalArgumentException if a tile would not fit in one 2 GB
+     *                                  mapping
+     */
+    public DistanceMatrixExport(WordNet wordnet, List<String> nouns, int tileRows) {
+        if (wordnet == null || nouns == null) {
+            throw new IllegalArgumentException("argument is null!");
+        }
+        if (tileRows <= 0) {
+            throw new IllegalArgumentException("tileRows must be positive!");
+        }
+        this.nouns = new ArrayList<>(nouns);
+        this.ids = new int[this.nouns.size()][];
+        this.neighborhood = wordnet.neighborhood(this.nouns, this.ids);
+        this.cellBytes = (2L * wordnet.height() < 0xff) ? 1 : 2;
+        if ((long) tileRows * this.nouns.size() * this.cellBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format(
+                    "a tile of %d rows of %d nouns is larger than 2 GB, use fewer tileRows!", tileRows,
+                    this.nouns.size()));
+        }
+        this.tileRows = tileRows;
+        CsrDigraph digraph = this.neighborhood.hypernyms();
+        this.graphVertices = digraph.V();
+        this.graphEdges = digraph.E();
+        this.graphCrc = digraph.crc();
+    }
+
+    /**
+     * @return bytes per matrix cell, 1 or 2
+     */
+    public int cellBytes() {
+        return this.cellBytes;
+    }
+
+    /**
+     * Computes every tile that is not complete in {@code file} yet, creating the
+     * file if it does not exist or is empty.
+     * 
+     * @param file     - output file
+     * @param progress - receives progress after every tile; may be null
+     * @throws IllegalArgumentException if file is neither empty nor an
+     *                                  unfinished run of this same export
+     */
+    public void run(Path file, Progress progress) {
+        this.run(file, false, progress);
+    }
+
+    /**
+     * Computes every tile that is not complete in {@code file} yet, creating the
+     * file if it does not exist or is empty. A file holding anything else, be it
+     * a different export or not a distance matrix at all, is only replaced if
+     * {@code overwrite} is true.
+     * 
+     * @param file      - output file
+     * @param overwrite - true to replace a file that cannot be resumed
+     * @param progress  - receives progress after every tile; may be null
+     * @throws IllegalArgumentException if file cannot be resumed and overwrite
+     *                                  is false
+     */
+    public void run(Path file, boolean overwrite, Progress progress) {
+        final int n = this.nouns.size();
+        final int tiles = (n + this.tileRows - 1) / this.tileRows;
+        final long headerBytes = (FLAGS + tiles + HEADER_ALIGN - 1) / HEADER_ALIGN * HEADER_ALIGN;
+        final long crc = this.nounsCrc();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            /*
+             * check any existing header with a plain read, so that nothing is mapped
+             * yet if the file has to be truncated
+             */
+            ByteBuffer existing = ByteBuffer.allocate(FLAGS);
+            int read = 0;
+            while (existing.hasRemaining() && read != -1) {
+                read = channel.read(existing, existing.position());
+            }
+            boolean resume = channel.size() >= headerBytes && this.matches(existing, tiles, crc);
+            if (!resume) {
+                if (channel.size() > 0 && !overwrite) {
+                    throw new IllegalArgumentException((existing.getInt(0) == MAGIC)
+                            ? file + " holds a different export, refusing to overwrite it!"
+                            : file + " is not a distance matrix, refusing to overwrite it!");
+                }
+                // a new export; clear any previous contents before writing the header
+                channel.truncate(0);
+            }
+
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, headerBytes);
+            if (!resume) {
+                header.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, n).putInt(12, this.cellBytes)
+                        .putInt(16, this.tileRows).putInt(20, tiles).putLong(24, crc)
+                        .putInt(32, this.graphVertices).putInt(36, this.graphEdges).putLong(40, this.graphCrc);
+                header.force();
+            }
+            this.writeNouns(Paths.get(file + ".nouns"), resume);
+
+            final MappedByteBuffer flags = header;
+            int[] pending = IntStream.range(0, tiles).filter(t -> flags.get(FLAGS + t) == 0).toArray();
+            AtomicInteger done = new AtomicInteger(tiles - pending.length);
+            AtomicInteger rows = new AtomicInteger();
+            final long start = System.nanoTime();
+            ThreadLocal<int[]> dist = ThreadLocal.withInitial(() -> new int[this.neighborhood.size()]);
+
+            IntStream.of(pending).parallel().forEach(t -> {
+                int from = t * this.tileRows, to = Math.min(n, from + this.tileRows);
+                long offset = headerBytes + (long) from * n * this.cellBytes;
+                try {
+                    MappedByteBuffer tile = channel.map(FileChannel.MapMode.READ_WRITE, offset,
+                            (long) (to - from) * n * this.cellBytes);
+                    for (int row = from; row < to; row++) {
+                        this.writeRow(row, dist.get(), tile);
+                    }
+                    tile.force();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("could not write tile " + t + " of " + file, e);
+                }
+                synchronized (flags) {
+                    flags.put(FLAGS + t, (byte) 1);
+                    flags.force();
+                    int count = rows.addAndGet(to - from);
+                    if (progress != null) {
+                        progress.report(done.incrementAndGet(), tiles, count / ((System.nanoTime() - start) / 1e9));
+                    }
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not export to " + file, e);
+        }
+    }
+
+    /**
+     * Writes the noun list next to the matrix. When resuming, an existing list is
+     * kept if it still matches, and written again if it is missing or differs.
+     */
+    private void writeNouns(Path path, boolean resume) throws IOException {
+        if (resume && Files.isRegularFile(path)
+                && Files.readAllLines(path, StandardCharsets.UTF_8).equals(this.nouns)) {
+            return;
+        }
+        Files.write(path, this.nouns, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return true if the header describes this export
+     */
+    private boolean matches(ByteBuffer header, int tiles, long crc) {
+        return header.getInt(0) == MAGIC && header.getInt(4) == VERSION && header.getInt(8) == this.nouns.size()
+                && header.getInt(12) == this.cellBytes && header.getInt(16) == this.tileRows
+                && header.getInt(20) == tiles && header.getLong(24) == crc && header.getInt(32) == this.graphVertices
+                && header.getInt(36) == this.graphEdges && header.getLong(40) == this.graphCrc;
+    }
+
+    private long nounsCrc() {
+        CRC32 crc = new CRC32();
+        for (String noun : this.nouns) {
+            crc.update(noun.getBytes(StandardCharsets.UTF_8));
+            crc.update('\n');
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Computes one row and appends it to the tile buffer.
+     * 
+     * @param row  - row noun number
+     * @param dist - per-thread buffer of one distance per synset
+     * @param tile - mapped tile, positioned at the row
+     */
+    private void writeRow(int row, int[] dist, ByteBuffer tile) {
+        Arrays.fill(dist, -1);
+        this.neighborhood.search(this.ids[row], (synset, distance) -> {
+            dist[synset] = distance;
+            return true;
+        });
+        final int none = (this.cellBytes == 1) ? 0xff : 0xffff;
+        for (int[] column : this.ids) {
+            int best = -1;
+            for (int id : column) {
+                if (dist[id] != -1 && (best == -1 || dist[id] < best)) {
+                    best = dist[id];
+                }
+            }
+            int cell = (best == -1) ? none : best;
+            if (this.cellBytes == 1) {
+                tile.put((byte) cell);
+            } else {
+                tile.putShort((short) cell);
+            }
+        }
+    }
+
+    /**
+     * Reads one distance back from an exported file.
+     * 
+     * @param file - a complete export
+     * @param i    - row noun number
+     * @param j    - column noun number
+     * @return the distance; -1 if the nouns have no common ancestor
+     */
+    public static int read(Path file, int i, int j) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(FLAGS);
+            channel.read(header, 0);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IllegalArgumentException(file + " is not a distance matrix!");
+            }
+            int n = header.getInt(8), cellBytes = header.getInt(12), tiles = header.getInt(20);
+            if (i < 0 || i >= n || j < 0 || j >= n) {
+                throw new IllegalArgumentException(String.format("cell (%d, %d) is outside the matrix!", i, j));
+            }
+            long headerBytes = (FLAGS + tiles + HEADER_ALIGN - 1) / HEADER_ALIGN * HEADER_ALIGN;
+            ByteBuffer cell = ByteBuffer.allocate(cellBytes);
+            channel.read(cell, headerBytes + ((long) i * n + j) * cellBytes);
+            int value = (cellBytes == 1) ? cell.get(0) & 0xff : cell.getShort(0) & 0xffff;
+            return (value == ((cellBytes == 1) ? 0xff : 0xffff)) ? -1 : value;
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not read " + file, e);
+        }
+    }
+
+    /**
+     * Exports the distance matrix of all nouns, or of the nouns listed one per
+     * line in a file, printing progress. An existing output file that is not an
+     * unfinished run of the same export is only replaced with {@code -overwrite}.
+     * Usage: {@code DistanceMatrixExport [-overwrite] synsets.txt hypernyms.txt out.bin [nouns.txt] [tileRows]}
+     * 
+     * @param args
+     */
+    public static void main(String[] args) throws IOException {
+        boolean overwrite = args.length > 0 && args[0].equals("-overwrite");
+        if (overwrite) {
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        WordNet wordnet = new WordNet(args[0], args[1]);
+        List<String> nouns = new ArrayList<>();
+        if (args.length > 3) {
+            nouns.addAll(Files.readAllLines(Paths.get(args[3]), StandardCharsets.UTF_8));
+            nouns.removeIf(String::isBlank);
+        } else {
+            for (String noun : wordnet.nouns()) {
+                nouns.add(noun);
+            }
+        }
+        int tileRows = (args.length > 4) ? Integer.parseInt(args[4]) : 256;
+
+        DistanceMatrixExport export = new DistanceMatrixExport(wordnet, nouns, tileRows);
+        export.run(Paths.get(args[2]), overwrite, (done, tiles, rowsPerSec) -> StdOut.printf(
+                "tile %d/%d, %.0f rows/s, %.0f cells/s\n", done, tiles, rowsPerSec, rowsPerSec * nouns.size()));
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * InformationContent class.
+ * <p>
+ * Intrinsic information content of every synset of a rooted DAG, for the
+ * similarity measures of Resnik, Lin and Jiang-Conrath. The probability of a
+ * synset is the share of all noun senses that fall under it, i.e. the nouns of
+ * the synset and of all its descendants, and its information content is
+ * {@code IC(v) = -ln p(v)}. The root holds every noun, so its IC is 0, and the
+ * IC grows towards the leaves.
+ * <p>
+ * Counts are over distinct descendants. With multiple inheritance, summing the
+ * counts of the hyponyms in reverse topological order would count a synset
+ * once per path to an ancestor, so instead every synset adds its nouns to each
+ * of its distinct ancestors, found by one walk up the digraph. The total work
+ * is the sum of the ancestor set sizes, a small multiple of V for WordNet. All
+ * values are then plain array reads.
+ */
+public final class InformationContent {
+    private final int[] descendants;
+    private final int[] nouns;
+    private final double[] ic;
+
+    /**
+     * Counts the descendants and nouns under every synset.
+     * 
+     * @param G         - a rooted DAG of hypernyms
+     * @param dag       - its structure
+     * @param nounIndex - synset ids of each noun
+     */
+    InformationContent(CsrDigraph G, RootedDag dag, NounIndex nounIndex) {
+        final int n = G.V();
+        // every synset counts at least once, so that no IC is infinite
+        int[] own = new int[n];
+        for (int id : nounIndex.idArray()) {
+            own[id]++;
+        }
+        for (int v = 0; v < n; v++) {
+            own[v] = Math.max(1, own[v]);
+        }
+
+        /*
+         * add each synset to itself and its distinct ancestors, walking up with a
+         * stack and stamping visited ancestors with the synset being added
+         */
+        this.descendants = new int[n];
+        this.nouns = new int[n];
+        int[] stamp = new int[n];
+        int[] stack = new int[n];
+        for (int v = 0; v < n; v++) {
+            int top = 0;
+            stack[top++] = v;
+            stamp[v] = v + 1;
+            while (top > 0) {
+                int x = stack[--top];
+                this.descendants[x]++;
+                this.nouns[x] += own[v];
+                for (int e = G.offsets[x]; e < G.offsets[x + 1]; e++) {
+                    int y = G.targets[e];
+                    if (stamp[y] != v + 1) {
+                        stamp[y] = v + 1;
+                        stack[top++] = y;
+                    }
+                }
+            }
+        }
+
+        this.ic = new double[n];
+        final double total = this.nouns[dag.root()];
+        for (int v = 0; v < n; v++) {
+            this.ic[v] = Math.log(total / this.nouns[v]);
+        }
+    }
+
+    /**
+     * @param v - a synset id
+     * @return number of synsets under v, including v
+     */
+    public int descendants(int v) {
+        return this.descendants[v];
+    }
+
+    /**
+     * @param v - a synset id
+     * @return number of noun senses in v and its descendants, at least 1 per
+     *         synset
+     */
+    public int nouns(int v) {
+        return this.nouns[v];
+    }
+
+    /**
+     * @param v - a synset id
+     * @return information content of v; 0 for the root
+     */
+    public double ic(int v) {
+        return this.ic[v];
+    }
+}
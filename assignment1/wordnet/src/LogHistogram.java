@@ -0,0 +1,169 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LogHistogram class.
+ * <p>
+ * A fixed-size, thread-safe histogram of non-negative longs with log-linear
+ * buckets, in the style of HdrHistogram: values below 8 have a bucket each,
+ * and every power of two above is split into 8 equal sub-buckets. Any value is
+ * then recorded with a relative error of at most 12.5%, in 488 buckets, with no
+ * allocation and one atomic increment.
+ */
+public final class LogHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @return bucket holding a non-negative value
+     */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return largest value that falls into a bucket
+     */
+    static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BITS);
+        return lowest + (1L << (exponent - SUB_BITS)) - 1;
+    }
+
+    /**
+     * Records one value; negative values count as 0.
+     * 
+     * @param value
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        this.counts.incrementAndGet(bucket(value));
+        this.count.increment();
+        this.sum.add(value);
+        long current = this.max.get();
+        while (value > current && !this.max.compareAndSet(current, value)) {
+            current = this.max.get();
+        }
+    }
+
+    /**
+     * Clears all recorded values. Values recorded concurrently may be partly
+     * kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.counts.set(i, 0);
+        }
+        this.count.reset();
+        this.sum.reset();
+        this.max.set(0);
+    }
+
+    /**
+     * Copies the current counts. Values recorded concurrently may be partly
+     * included.
+     * 
+     * @return an immutable snapshot
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = this.counts.get(i);
+            total += copy[i];
+        }
+        return new Snapshot(copy, total, this.sum.sum(), this.max.get());
+    }
+
+    /**
+     * Immutable copy of a histogram.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long count() {
+            return this.count;
+        }
+
+        public long max() {
+            return this.max;
+        }
+
+        /**
+         * @return mean of the recorded values; 0 if there are none
+         */
+        public double mean() {
+            return (this.count == 0) ? 0.0 : (double) this.sum / this.count;
+        }
+
+        /**
+         * Value at a percentile, rounded up to the top of its bucket but never
+         * above the maximum recorded.
+         * 
+         * @param percentile - between 0 and 100
+         * @return the value; 0 if nothing was recorded
+         */
+        public long percentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile must be between 0 and 100!");
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * this.count));
+            long seen = 0;
+            for (int i = 0; i < this.counts.length; i++) {
+                seen += this.counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), this.max);
+                }
+            }
+            return this.max;
+        }
+
+        /**
+         * Merges this snapshot with another, e.g. from a different thread or
+         * process.
+         * 
+         * @param that - another snapshot
+         * @return a new snapshot of both
+         */
+        public Snapshot plus(Snapshot that) {
+            long[] merged = this.counts.clone();
+            for (int i = 0; i < merged.length; i++) {
+                merged[i] += that.counts[i];
+            }
+            return new Snapshot(merged, this.count + that.count, this.sum + that.sum, Math.max(this.max, that.max));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count = %d, mean = %.1f, p50 = %d, p99 = %d, max = %d",
+                    this.count, this.mean(), this.percentile(50), this.percentile(99), this.max);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+import java.util.Arrays;
+
+/**
+ * Neighborhood class.
+ * <p>
+ * Enumerates the synsets around a source set in increasing shortest ancestral
+ * path distance. An ancestral path from a source s to a synset t goes up from s
+ * to a common ancestor a and then down from a to t, so the search is a BFS
+ * over two states per synset: <i>up</i> (still climbing hypernyms from the
+ * sources) and <i>down</i> (descending hyponyms after turning at an ancestor).
+ * An up state may step to a hypernym or turn down to a hyponym; a down state
+ * may only step to a hyponym. Every synset is reported the first time either of
+ * its states is reached, which is at its exact distance from the sources.
+ * <p>
+ * The search touches only the states it reaches before the visitor stops it,
+ * so its cost is proportional to the explored neighborhood.
+ */
+final class Neighborhood {
+    private final CsrDigraph hypernyms;
+    private final CsrDigraph hyponyms;
+
+    /**
+     * Per-thread search buffers, stamped by generation like those of {@link SAP}.
+     */
+    private final ThreadLocal<Scratch> scratch;
+
+    /**
+     * Receives each synset as the search reaches it.
+     */
+    interface Visitor {
+        /**
+         * @param synset   - a synset id
+         * @param distance - its shortest ancestral path distance from the sources
+         * @return true to keep searching; false to stop
+         */
+        boolean visit(int synset, int distance);
+    }
+
+    private static final class Scratch {
+        // stamp of state 2v (up) and 2v + 1 (down), and of v once reported
+        private final int[] stamp;
+        private final int[] reported;
+        private final int[] queue;
+        private final int[] dist;
+        private int generation;
+
+        private Scratch(int n) {
+            this.stamp = new int[2 * n];
+            this.reported = new int[n];
+            this.queue = new int[2 * n];
+            this.dist = new int[2 * n];
+        }
+    }
+
+    /**
+     * @param hypernyms - the hypernym digraph
+     * @param hyponyms  - its reverse
+     */
+    Neighborhood(CsrDigraph hypernyms, CsrDigraph hyponyms) {
+        this.hypernyms = hypernyms;
+        this.hyponyms = hyponyms;
+        final int n = hypernyms.V();
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(n));
+    }
+
+    /**
+     * @return number of synsets
+     */
+    int size() {
+        return this.hypernyms.V();
+    }
+
+    /**
+     * @return the hypernym digraph searched
+     */
+    CsrDigraph hypernyms() {
+        return this.hypernyms;
+    }
+
+    /**
+     * Visits synsets in non-decreasing distance from the sources, starting with
+     * the sources themselves at distance 0, until the visitor returns false or
+     * every reachable synset has been visited.
+     * 
+     * @param sources - synset ids to start from
+     * @param visitor - receives each synset once
+     */
+    void search(int[] sources, Visitor visitor) {
+        Scratch sc = this.scratch.get();
+        if (++sc.generation == 0) {
+            Arrays.fill(sc.stamp, 0);
+            Arrays.fill(sc.reported, 0);
+            sc.generation = 1;
+        }
+        final int gen = sc.generation;
+        final int[] stamp = sc.stamp, reported = sc.reported, queue = sc.queue, dist = sc.dist;
+        final int[] upOffsets = this.hypernyms.offsets, upTargets = this.hypernyms.targets;
+        final int[] downOffsets = this.hyponyms.offsets, downTargets = this.hyponyms.targets;
+
+        int head = 0, tail = 0;
+        for (int s : sources) {
+            if (stamp[2 * s] != gen) {
+                stamp[2 * s] = gen;
+                dist[tail] = 0;
+                queue[tail++] = 2 * s;
+            }
+        }
+        while (head < tail) {
+            final int d = dist[head];
+            final int state = queue[head++];
+            final int x = state >>> 1;
+            if (reported[x] != gen) {
+                reported[x] = gen;
+                if (!visitor.visit(x, d)) {
+                    return;
+                }
+            }
+            if ((state & 1) == 0) {
+                for (int e = upOffsets[x]; e < upOffsets[x + 1]; e++) {
+                    int next = 2 * upTargets[e];
+                    if (stamp[next] != gen) {
+                        stamp[next] = gen;
+                        dist[tail] = d + 1;
+                        queue[tail++] = next;
+                    }
+                }
+            }
+            for (int e = downOffsets[x]; e < downOffsets[x + 1]; e++) {
+                int next = 2 * downTargets[e] + 1;
+                if (stamp[next] != gen) {
+                    stamp[next] = gen;
+                    dist[tail] = d + 1;
+                    queue[tail++] = next;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * NounIndex class.
+ * <p>
+ * Immutable dictionary from each WordNet noun to the synset ids it belongs to.
+ * Nouns are numbered 0 to N - 1 in order of first appearance, and the synset
+ * ids of noun i are {@code ids[idStart[i] .. idStart[i + 1])} in one shared int
+ * array, so there is no list object or boxed Integer per noun. Lookups go
+ * through an open-addressing hash table with linear probing, kept at most half
+ * full, whose slots hold noun numbers plus one (0 marks an empty slot).
+ */
+public final class NounIndex {
+    private final String[] nouns;
+    private final int[] idStart;
+    private final int[] ids;
+    private final int[] table;
+    private final int mask;
+
+    /**
+     * Builds the index from every (noun, synset id) occurrence, in file order. A
+     * noun's ids keep the order of its occurrences.
+     * 
+     * @param occurrences - noun of each occurrence
+     * @param synsetIds   - synset id of each occurrence
+     * @param count       - number of occurrences used from both arrays
+     */
+    NounIndex(String[] occurrences, int[] synsetIds, int count) {
+        this.table = new int[tableSize(count)];
+        this.mask = this.table.length - 1;
+
+        // number the distinct nouns and count the ids of each
+        int[] nounOf = new int[count];
+        String[] nouns = new String[Math.max(16, count / 2)];
+        int[] counts = new int[nouns.length + 1];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            int slot = this.slot(occurrences[i], nouns);
+            if (this.table[slot] == 0) {
+                if (size == nouns.length) {
+                    nouns = Arrays.copyOf(nouns, 2 * size);
+                    counts = Arrays.copyOf(counts, 2 * size + 1);
+                }
+                nouns[size++] = occurrences[i];
+                this.table[slot] = size;
+            }
+            nounOf[i] = this.table[slot] - 1;
+            counts[nounOf[i] + 1]++;
+        }
+
+        this.nouns = Arrays.copyOf(nouns, size);
+        this.idStart = Arrays.copyOf(counts, size + 1);
+        for (int i = 0; i < size; i++) {
+            this.idStart[i + 1] += this.idStart[i];
+        }
+        this.ids = new int[count];
+        int[] next = Arrays.copyOf(this.idStart, size);
+        for (int i = 0; i < count; i++) {
+            this.ids[next[nounOf[i]]++] = synsetIds[i];
+        }
+    }
+
+    /**
+     * Rebuilds an index from the arrays of an existing one, which it takes
+     * ownership of.
+     * 
+     * @param nouns   - distinct nouns
+     * @param idStart - start of each noun's ids, plus the total at the end
+     * @param ids     - synset ids of all nouns
+     */
+    NounIndex(String[] nouns, int[] idStart, int[] ids) {
+        if (idStart.length != nouns.length + 1 || idStart[0] != 0 || idStart[nouns.length] != ids.length) {
+            throw new IllegalArgumentException("noun ranges do not match ids!");
+        }
+        this.nouns = nouns;
+        this.idStart = idStart;
+        this.ids = ids;
+        this.table = new int[tableSize(nouns.length)];
+        this.mask = this.table.length - 1;
+        for (int i = 0; i < nouns.length; i++) {
+            int slot = this.slot(nouns[i], nouns);
+            if (this.table[slot] != 0) {
+                throw new IllegalArgumentException(String.format("duplicate noun '%s'!", nouns[i]));
+            }
+            this.table[slot] = i + 1;
+        }
+    }
+
+    /**
+     * Copy of this index with the nouns of one more synset. Nouns already in the
+     * index get {@code id} appended to their ids; new nouns are numbered after
+     * the existing ones.
+     * 
+     * @param added - nouns of the new synset
+     * @param id    - id of the new synset
+     * @return a new NounIndex
+     */
+    NounIndex plus(String[] added, int id) {
+        final int n = this.nouns.length;
+        String[] nouns = Arrays.copyOf(this.nouns, n + added.length);
+        int[] extra = new int[n + added.length];
+        int size = n;
+        for (String noun : added) {
+            int i = this.find(noun);
+            if (i == -1) {
+                // may repeat within the synset, so look among the new nouns too
+                for (int j = n; j < size; j++) {
+                    if (nouns[j].equals(noun)) {
+                        i = j;
+                        break;
+                    }
+                }
+            }
+            if (i == -1) {
+                i = size;
+                nouns[size++] = noun;
+            }
+            extra[i]++;
+        }
+
+        int[] idStart = new int[size + 1];
+        int[] ids = new int[this.ids.length + added.length];
+        for (int i = 0; i < size; i++) {
+            int count = (i < n) ? this.idStart[i + 1] - this.idStart[i] : 0;
+            if (count > 0) {
+                System.arraycopy(this.ids, this.idStart[i], ids, idStart[i], count);
+            }
+            Arrays.fill(ids, idStart[i] + count, idStart[i] + count + extra[i], id);
+            idStart[i + 1] = idStart[i] + count + extra[i];
+        }
+        return new NounIndex(Arrays.copyOf(nouns, size), idStart, ids);
+    }
+
+    /**
+     * @return smallest power of two at least twice {@code n}
+     */
+    private static int tableSize(int n) {
+        int size = 16;
+        while (size < 2 * n) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /**
+     * Probes for a noun.
+     * 
+     * @param noun
+     * @param nouns - nouns numbered so far
+     * @return the slot holding the noun, or the empty slot where it would go
+     */
+    private int slot(String noun, String[] nouns) {
+        int h = noun.hashCode();
+        int slot = (h ^ (h >>> 16)) & this.mask;
+        while (this.table[slot] != 0 && !nouns[this.table[slot] - 1].equals(noun)) {
+            slot = (slot + 1) & this.mask;
+        }
+        return slot;
+    }
+
+    /**
+     * @return number of distinct nouns
+     */
+    public int size() {
+        return this.nouns.length;
+    }
+
+    /**
+     * Finds the number of a noun.
+     * 
+     * @param noun
+     * @return the noun's number between 0 and size() - 1; -1 if not a noun
+     */
+    public int find(String noun) {
+        int entry = this.table[this.slot(noun, this.nouns)];
+        return entry - 1;
+    }
+
+    /**
+     * @param noun
+     * @return true if noun is in the index
+     */
+    public boolean contains(String noun) {
+        return this.find(noun) >= 0;
+    }
+
+    /**
+     * Synset ids of a noun.
+     * 
+     * @param noun
+     * @return a new array with the noun's synset ids; null if not a noun
+     */
+    public int[] ids(String noun) {
+        int i = this.find(noun);
+        return (i == -1) ? null : Arrays.copyOfRange(this.ids, this.idStart[i], this.idStart[i + 1]);
+    }
+
+    /**
+     * @return read-only view of all nouns, in order of their numbers
+     */
+    public List<String> nouns() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int i) {
+                return nouns[i];
+            }
+
+            @Override
+            public int size() {
+                return nouns.length;
+            }
+        };
+    }
+
+    // raw arrays, read by WordNetSnapshot and by the query paths of WordNet
+    String[] nounArray() {
+        return this.nouns;
+    }
+
+    int[] idStartArray() {
+        return this.idStart;
+    }
+
+    int[] idArray() {
+        return this.ids;
+    }
+}
@@ -0,0 +1,221 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import edu.princeton.cs.algs4.StdOut;
+
+/**
+ * OffHeapDigraph class.
+ * <p>
+ * An immutable digraph in the same compressed sparse row form as
+ * {@link CsrDigraph}, with both arrays stored outside the Java heap, so that a
+ * graph of tens of millions of vertices costs the garbage collector nothing.
+ * The arrays are either direct buffers copied from a CsrDigraph, or the pages
+ * of a file memory-mapped by {@link #map(Path)}, which the operating system
+ * shares between processes and can page out.
+ * <p>
+ * The file layout is little-endian:
+ * 
+ * <pre>
+ * int      magic "WNCS"
+ * int      format version
+ * int      V, number of vertices
+ * int      E, number of edges
+ * int[V+1] offsets
+ * int[E]   targets
+ * </pre>
+ */
+public final class OffHeapDigraph {
+    private static final int MAGIC = 0x574e4353; // "WNCS"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+
+    private final int vertices;
+
+    /**
+     * The vertices adjacent from v are {@code targets[offsets[v] .. offsets[v + 1])}.
+     */
+    final IntBuffer offsets;
+    final IntBuffer targets;
+
+    /**
+     * Copies a compressed digraph outside the heap.
+     * 
+     * @param G - a CsrDigraph
+     */
+    public OffHeapDigraph(CsrDigraph G) {
+        if (G == null) {
+            throw new IllegalArgumentException("digraph cannot be null!");
+        }
+        this.vertices = G.V();
+        this.offsets = allocate(G.offsets.length).put(G.offsets).flip();
+        this.targets = allocate(G.targets.length).put(G.targets).flip();
+    }
+
+    /**
+     * Wraps mapped arrays, checking that they form a valid digraph.
+     */
+    private OffHeapDigraph(IntBuffer offsets, IntBuffer targets) {
+        final int n = offsets.limit() - 1;
+        if (n < 0 || offsets.get(0) != 0 || offsets.get(n) != targets.limit()) {
+            throw new IllegalArgumentException("offsets do not match targets!");
+        }
+        for (int v = 0; v < n; v++) {
+            if (offsets.get(v) > offsets.get(v + 1)) {
+                throw new IllegalArgumentException("offsets must be non-decreasing!");
+            }
+        }
+        for (int e = 0; e < targets.limit(); e++) {
+            int w = targets.get(e);
+            if (w < 0 || w >= n) {
+                throw new IllegalArgumentException(
+                        String.format("vertex %d is not between 0 and %d", w, n - 1));
+            }
+        }
+        this.vertices = n;
+        this.offsets = offsets;
+        this.targets = targets;
+    }
+
+    /**
+     * @return a zeroed direct buffer of {@code count} ints in file byte order
+     */
+    static IntBuffer allocate(int count) {
+        return ByteBuffer.allocateDirect(4 * count).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    /**
+     * Memory-maps a digraph written by {@link #write(Path)}. Only the header and a
+     * validation pass are read up front; the operating system pages the rest in
+     * as searches touch it.
+     * 
+     * @param file - file to map
+     * @return the mapped digraph
+     * @throws IllegalArgumentException if the file is not a valid digraph
+     */
+    public static OffHeapDigraph map(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IllegalArgumentException(file + " is not a CSR digraph!");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(0) != MAGIC) {
+                throw new IllegalArgumentException(file + " is not a CSR digraph!");
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IllegalArgumentException(
+                        String.format("unsupported digraph version %d in %s!", header.getInt(4), file));
+            }
+            final int vertices = header.getInt(8), edges = header.getInt(12);
+            final long offsetBytes = 4L * (vertices + 1L), targetBytes = 4L * edges;
+            if (vertices < 0 || edges < 0 || channel.size() != HEADER_BYTES + offsetBytes + targetBytes) {
+                throw new IllegalArgumentException(file + " is truncated or malformed!");
+            }
+            // two mappings, so each array may use the full 2 GB of a buffer
+            IntBuffer offsets = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, offsetBytes)
+                    .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            IntBuffer targets = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + offsetBytes, targetBytes)
+                    .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            return new OffHeapDigraph(offsets, targets);
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not map " + file, e);
+        }
+    }
+
+    /**
+     * Writes this digraph in the format read by {@link #map(Path)}, replacing any
+     * existing file.
+     * 
+     * @param file - file to write
+     */
+    public void write(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(MAGIC).putInt(VERSION).putInt(this.vertices).putInt(this.E());
+            for (IntBuffer ints : new IntBuffer[] { this.offsets, this.targets }) {
+                for (int i = 0; i < ints.limit(); i++) {
+                    if (!buf.hasRemaining()) {
+                        drain(channel, buf);
+                    }
+                    buf.putInt(ints.get(i));
+                }
+            }
+            drain(channel, buf);
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not write " + file, e);
+        }
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        buf.clear();
+    }
+
+    /**
+     * @return number of vertices
+     */
+    public int V() {
+        return this.vertices;
+    }
+
+    /**
+     * @return number of edges
+     */
+    public int E() {
+        return this.targets.limit();
+    }
+
+    /**
+     * @param v - a vertex
+     * @return number of edges out of v
+     */
+    public int outdegree(int v) {
+        this.validateVertex(v);
+        return this.offsets.get(v + 1) - this.offsets.get(v);
+    }
+
+    /**
+     * Vertex at the head of the i-th edge out of v.
+     * 
+     * @param v - a vertex
+     * @param i - index of the edge, between 0 and outdegree(v) - 1
+     * @return the vertex adjacent from v through that edge
+     */
+    public int adj(int v, int i) {
+        return this.targets.get(this.offsets.get(v) + i);
+    }
+
+    private void validateVertex(int v) {
+        if (v < 0 || v >= this.vertices) {
+            throw new IllegalArgumentException(
+                    String.format("vertex %d is not between 0 and %d", v, this.vertices - 1));
+        }
+    }
+
+    /**
+     * Converts a hypernyms file into a digraph file for {@link #map(Path)}. The
+     * number of vertices is that of the synsets file, so synsets without any
+     * hypernym edge keep their ids.
+     * Usage: {@code OffHeapDigraph synsets.txt hypernyms.txt graph.csr}
+     * 
+     * @param args
+     */
+    public static void main(String[] args) {
+        int vertices = WordNetParser.parseSynsets(WordNetParser.read(args[0])).size;
+        WordNetParser.Edges edges = WordNetParser.parseHypernyms(WordNetParser.read(args[1]));
+        CsrDigraph digraph = new CsrDigraph(vertices, edges.from, edges.to, edges.size);
+        new OffHeapDigraph(digraph).write(Paths.get(args[2]));
+        StdOut.printf("%d vertices, %d edges written to %s\n", digraph.V(), digraph.E(), args[2]);
+    }
+}
@@ -0,0 +1,630 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import edu.princeton.cs.algs4.Digraph;
+import edu.princeton.cs.algs4.In;
+import edu.princeton.cs.algs4.StdIn;
+import edu.princeton.cs.algs4.StdOut;
+
+/**
+ * OffHeapSAP class.
+ * <p>
+ * Shortest ancestral paths over an {@link OffHeapDigraph}, for digraphs too
+ * large to keep on the heap. It answers the same queries as {@link SAP} with
+ * the same lockstep bidirectional BFS, visiting vertices in the same order, so
+ * its lengths, ancestors and paths are identical to those of a SAP built over
+ * the same digraph without an ancestor index.
+ * <p>
+ * It supports the single and multi-source {@code length}, {@code ancestor},
+ * {@code query} and {@code lengthWithin} queries and {@link SapMetrics}. It does
+ * not support what SAP builds on-heap structures of V ints for: the
+ * {@link AncestorIndex} and {@link AncestorLabel}s, the batched
+ * {@link SAP#lengths} that group sources by their v tree, and the
+ * {@link RootedDag} bound that starts every search with the path through the
+ * root. Its traversal mirrors {@link SAP}'s line for line over buffers instead
+ * of arrays, so a change to one must be made to the other; {@code main} with
+ * {@code -check} compares the two on any digraph files. They are not merged
+ * behind a common interface, since SAP's inner loop would then pay for a call
+ * per array access.
+ * <p>
+ * Besides the digraph, the per-thread search buffers are kept outside the heap
+ * too: at 32 bytes per vertex they are the largest allocation of a SAP, one
+ * set per querying thread, and as direct buffers they are neither copied nor
+ * scanned by the garbage collector. A thread's buffers are freed once the
+ * thread has ended and its buffers are collected.
+ */
+public class OffHeapSAP {
+    private final OffHeapDigraph digraph;
+    private final int vertices;
+
+    /**
+     * Per-thread search buffers; each thread holds eight direct int buffers of
+     * size V.
+     */
+    private final ThreadLocal<Scratch> scratch;
+
+    /**
+     * Optional per-query statistics; null if disabled.
+     */
+    private volatile SapMetrics metrics;
+
+    /**
+     * OffHeapSAP constructor takes an off-heap digraph (not necessarily a DAG),
+     * which it shares rather than copies since it is immutable.
+     * 
+     * @param G - an OffHeapDigraph
+     */
+    public OffHeapSAP(OffHeapDigraph G) {
+        if (G == null) {
+            throw new IllegalArgumentException("digraph cannot be null!");
+        }
+        this.digraph = G;
+        this.vertices = G.V();
+        final int n = this.vertices;
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(n));
+    }
+
+    /**
+     * Reusable search buffers owned by a single thread, stamped by generation
+     * like those of {@link SAP}.
+     */
+    private static final class Scratch {
+        private final IntBuffer stampV;
+        private final IntBuffer stampW;
+        private final IntBuffer distV;
+        private final IntBuffer distW;
+        private final IntBuffer edgeToV;
+        private final IntBuffer edgeToW;
+        private final IntBuffer queueV;
+        private final IntBuffer queueW;
+        private int generationV;
+        private int generationW;
+        private int tailV;
+        private int tailW;
+
+        // extent of the last search, for metrics
+        private int headV;
+        private int headW;
+        private int depth;
+
+        // paths of this length or longer are not searched for
+        private int limit;
+
+        // results of the last search
+        private int length;
+        private int ancestor;
+
+        private Scratch(int n) {
+            this.stampV = allocate(n);
+            this.stampW = allocate(n);
+            this.distV = allocate(n);
+            this.distW = allocate(n);
+            this.edgeToV = allocate(n);
+            this.edgeToW = allocate(n);
+            this.queueV = allocate(n);
+            this.queueW = allocate(n);
+        }
+
+        private static IntBuffer allocate(int n) {
+            return ByteBuffer.allocateDirect(4 * n).order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+
+        /**
+         * Starts a new query by invalidating every mark of the previous one.
+         */
+        private void reset() {
+            if (++this.generationV == 0) {
+                // stamps wrapped around; clear them once so stale marks cannot match
+                clear(this.stampV);
+                this.generationV = 1;
+            }
+            if (++this.generationW == 0) {
+                clear(this.stampW);
+                this.generationW = 1;
+            }
+            this.tailV = 0;
+            this.tailW = 0;
+            this.limit = Integer.MAX_VALUE;
+        }
+
+        private static void clear(IntBuffer buf) {
+            for (int i = 0; i < buf.limit(); i++) {
+                buf.put(i, 0);
+            }
+        }
+
+        private void addV(int s) {
+            if (this.stampV.get(s) != this.generationV) {
+                this.stampV.put(s, this.generationV);
+                this.distV.put(s, 0);
+                this.edgeToV.put(s, -1);
+                this.queueV.put(this.tailV++, s);
+            }
+        }
+
+        private void addW(int s) {
+            if (this.stampW.get(s) != this.generationW) {
+                this.stampW.put(s, this.generationW);
+                this.distW.put(s, 0);
+                this.edgeToW.put(s, -1);
+                this.queueW.put(this.tailW++, s);
+            }
+        }
+    }
+
+    /**
+     * The immutable digraph this SAP searches.
+     * 
+     * @return the off-heap digraph
+     */
+    public OffHeapDigraph digraph() {
+        return this.digraph;
+    }
+
+    /**
+     * Starts recording statistics of every query into {@code metrics}, or stops
+     * recording if it is null.
+     * 
+     * @param metrics - where to record, shared by any number of SAP objects
+     */
+    public void metrics(SapMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the metrics being recorded into; null if disabled
+     */
+    public SapMetrics metrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Computes the length of shortest ancestral path between two vertices v and w
+     * in the digraph.
+     * 
+     * @param v - a vertex in digraph
+     * @param w - a vertex in digraph
+     * @return length of shortest ancestral path; -1 if no path exists
+     */
+    public int length(int v, int w) {
+        this.validateVertex(v);
+        this.validateVertex(w);
+        return this.search(new int[] { v }, new int[] { w }).length;
+    }
+
+    /**
+     * Finds a common ancestor of v and w that participates in a shortest ancestral
+     * path.
+     * 
+     * @param v - a vertex in digraph
+     * @param w - a vertex in digraph
+     * @return the common ancestor that is in the shortest ancestral path; -1 if no
+     *         path exists
+     */
+    public int ancestor(int v, int w) {
+        this.validateVertex(v);
+        this.validateVertex(w);
+        return this.search(new int[] { v }, new int[] { w }).ancestor;
+    }
+
+    /**
+     * Computes the length of shortest ancestral path any vertex in v and any vertex
+     * in w.
+     * 
+     * @param v - an Iterable containing vertices in digraph
+     * @param w - an Iterable containing vertices in digraph
+     * @return length of shortest ancestral path; -1 if no path exists
+     */
+    public int length(Iterable<Integer> v, Iterable<Integer> w) {
+        return this.search(this.toArray(v, w), this.toArray(w, v)).length;
+    }
+
+    /**
+     * Finds a common ancestor of the shortest ancestral path between any vertex in
+     * v and any vertex in w.
+     * 
+     * @param v - an Iterable containing vertices in digraph
+     * @param w - an Iterable containing vertices in digraph
+     * @return the common ancestor in the shortest ancestral path between v and w;
+     *         -1 if no path exists
+     */
+    public int ancestor(Iterable<Integer> v, Iterable<Integer> w) {
+        return this.search(this.toArray(v, w), this.toArray(w, v)).ancestor;
+    }
+
+    /**
+     * Computes the length of shortest ancestral path between v and w if it is at
+     * most maxDist, with both searches bounded by it as in
+     * {@link SAP#lengthWithin(int, int, int)}.
+     * 
+     * @param v       - a vertex in digraph
+     * @param w       - a vertex in digraph
+     * @param maxDist - largest length of interest
+     * @return length of shortest ancestral path; -1 if no path of length at most
+     *         maxDist exists
+     */
+    public int lengthWithin(int v, int w, int maxDist) {
+        this.validateVertex(v);
+        this.validateVertex(w);
+        return this.lengthWithin(new int[] { v }, new int[] { w }, maxDist);
+    }
+
+    /**
+     * Same as {@link #lengthWithin(int, int, int)} between any vertex in v and
+     * any vertex in w.
+     * 
+     * @param v       - an Iterable containing vertices in digraph
+     * @param w       - an Iterable containing vertices in digraph
+     * @param maxDist - largest length of interest
+     * @return length of shortest ancestral path; -1 if no path of length at most
+     *         maxDist exists
+     */
+    public int lengthWithin(Iterable<Integer> v, Iterable<Integer> w, int maxDist) {
+        return this.lengthWithin(this.toArray(v, w), this.toArray(w, v), maxDist);
+    }
+
+    /**
+     * Same as {@link #lengthWithin(int, int, int)} between any vertex in v and
+     * any vertex in w, without boxing the vertices.
+     * 
+     * @param v       - vertices in digraph
+     * @param w       - vertices in digraph
+     * @param maxDist - largest length of interest
+     * @return length of shortest ancestral path; -1 if no path of length at most
+     *         maxDist exists
+     */
+    public int lengthWithin(int[] v, int[] w, int maxDist) {
+        this.validateVertices(v, w);
+        if (maxDist < 0) {
+            throw new IllegalArgumentException("maxDist cannot be negative!");
+        }
+        int length = this.search(v, w, (maxDist == Integer.MAX_VALUE) ? maxDist : maxDist + 1).length;
+        return (length <= maxDist) ? length : -1;
+    }
+
+    /**
+     * Computes the shortest ancestral path between two vertices v and w in one
+     * traversal, returning its length, ancestor and both half-paths.
+     * 
+     * @param v - a vertex in digraph
+     * @param w - a vertex in digraph
+     * @return the shortest ancestral path; {@link SapResult#hasPath()} is false if
+     *         no path exists
+     */
+    public SapResult query(int v, int w) {
+        this.validateVertex(v);
+        this.validateVertex(w);
+        return this.toResult(this.search(new int[] { v }, new int[] { w }));
+    }
+
+    /**
+     * Computes the shortest ancestral path between any vertex in v and any vertex
+     * in w in one traversal, returning its length, ancestor and both half-paths.
+     * 
+     * @param v - an Iterable containing vertices in digraph
+     * @param w - an Iterable containing vertices in digraph
+     * @return the shortest ancestral path; {@link SapResult#hasPath()} is false if
+     *         no path exists
+     */
+    public SapResult query(Iterable<Integer> v, Iterable<Integer> w) {
+        return this.toResult(this.search(this.toArray(v, w), this.toArray(w, v)));
+    }
+
+    /**
+     * Computes the length of shortest ancestral path between any vertex in v and
+     * any vertex in w, without boxing the vertices.
+     * 
+     * @param v - vertices in digraph
+     * @param w - vertices in digraph
+     * @return length of shortest ancestral path; -1 if no path exists
+     */
+    public int length(int[] v, int[] w) {
+        this.validateVertices(v, w);
+        return this.search(v, w).length;
+    }
+
+    /**
+     * Finds a common ancestor of the shortest ancestral path between any vertex in
+     * v and any vertex in w, without boxing the vertices.
+     * 
+     * @param v - vertices in digraph
+     * @param w - vertices in digraph
+     * @return the common ancestor in the shortest ancestral path between v and w;
+     *         -1 if no path exists
+     */
+    public int ancestor(int[] v, int[] w) {
+        this.validateVertices(v, w);
+        return this.search(v, w).ancestor;
+    }
+
+    /**
+     * Same as {@link #query(Iterable, Iterable)} for vertex sets given as arrays.
+     * 
+     * @param v - vertices in digraph
+     * @param w - vertices in digraph
+     * @return the shortest ancestral path; {@link SapResult#hasPath()} is false if
+     *         no path exists
+     */
+    public SapResult query(int[] v, int[] w) {
+        this.validateVertices(v, w);
+        return this.toResult(this.search(v, w));
+    }
+
+    /**
+     * Builds an immutable result from the last search, walking the edgeTo links
+     * back from the ancestor to recover both half-paths.
+     */
+    private SapResult toResult(Scratch sc) {
+        if (sc.ancestor == -1) {
+            return SapResult.NONE;
+        }
+        int ancestor = sc.ancestor;
+        int[] pathFromV = new int[sc.distV.get(ancestor) + 1];
+        for (int x = ancestor, i = pathFromV.length - 1; i >= 0; x = sc.edgeToV.get(x), i--) {
+            pathFromV[i] = x;
+        }
+        int[] pathFromW = new int[sc.distW.get(ancestor) + 1];
+        for (int x = ancestor, i = pathFromW.length - 1; i >= 0; x = sc.edgeToW.get(x), i--) {
+            pathFromW[i] = x;
+        }
+        return new SapResult(sc.length, ancestor, pathFromV, pathFromW);
+    }
+
+    private Scratch search(int[] v, int[] w) {
+        return this.search(v, w, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param limit - paths of this length or longer are not searched for
+     */
+    private Scratch search(int[] v, int[] w, int limit) {
+        Scratch sc = this.scratch.get();
+        sc.reset();
+        sc.limit = limit;
+        for (int s : v) {
+            sc.addV(s);
+        }
+        for (int s : w) {
+            sc.addW(s);
+        }
+
+        SapMetrics metrics = this.metrics;
+        if (metrics == null) {
+            this.traverse(sc);
+            return sc;
+        }
+        long start = System.nanoTime();
+        this.traverse(sc);
+        long nanos = System.nanoTime() - start;
+
+        // every dequeued vertex had all of its edges scanned
+        final IntBuffer offsets = this.digraph.offsets;
+        int edges = 0;
+        for (int i = 0; i < sc.headV; i++) {
+            int x = sc.queueV.get(i);
+            edges += offsets.get(x + 1) - offsets.get(x);
+        }
+        for (int i = 0; i < sc.headW; i++) {
+            int x = sc.queueW.get(i);
+            edges += offsets.get(x + 1) - offsets.get(x);
+        }
+        metrics.record(nanos, sc.tailV + sc.tailW, edges, sc.depth);
+        return sc;
+    }
+
+    /**
+     * Lockstep bidirectional BFS from the sources already queued in {@code sc},
+     * step for step the search of {@link SAP} on a digraph not known to be a
+     * rooted DAG; keep the two in step. Stores the length and ancestor in
+     * {@code sc}; both are -1 if no path exists.
+     */
+    private void traverse(Scratch sc) {
+        final int genV = sc.generationV, genW = sc.generationW;
+        final IntBuffer stampV = sc.stampV, stampW = sc.stampW;
+        final IntBuffer distV = sc.distV, distW = sc.distW;
+        final IntBuffer edgeToV = sc.edgeToV, edgeToW = sc.edgeToW;
+        final IntBuffer queueV = sc.queueV, queueW = sc.queueW;
+        final IntBuffer offsets = this.digraph.offsets, targets = this.digraph.targets;
+        int headV = 0, tailV = sc.tailV, headW = 0, tailW = sc.tailW;
+
+        int best = sc.limit;
+        int ancestor = -1;
+
+        for (int i = 0; i < tailW; i++) {
+            if (stampV.get(queueW.get(i)) == genV) {
+                // a vertex in both sets is its own shortest common ancestor
+                sc.length = 0;
+                sc.ancestor = queueW.get(i);
+                sc.headV = 0;
+                sc.headW = 0;
+                sc.depth = 0;
+                return;
+            }
+        }
+
+        int levelV = 0, levelW = 0; // distance of the vertices at the head of each queue
+        boolean turnV = true;
+        while (true) {
+            boolean canV = headV < tailV && levelV + 1 < best;
+            boolean canW = headW < tailW && levelW + 1 < best;
+            if (!canV && !canW) {
+                break;
+            }
+
+            if (canV && (turnV || !canW)) {
+                // expand every vertex on the current level of v's search
+                while (headV < tailV && distV.get(queueV.get(headV)) == levelV) {
+                    int x = queueV.get(headV++);
+                    for (int e = offsets.get(x), end = offsets.get(x + 1); e < end; e++) {
+                        int y = targets.get(e);
+                        if (stampV.get(y) == genV) {
+                            continue;
+                        }
+                        stampV.put(y, genV);
+                        distV.put(y, levelV + 1);
+                        edgeToV.put(y, x);
+                        queueV.put(tailV++, y);
+                        if (stampW.get(y) == genW && levelV + 1 + distW.get(y) < best) {
+                            best = levelV + 1 + distW.get(y);
+                            ancestor = y;
+                        }
+                    }
+                }
+                levelV++;
+            } else {
+                // expand every vertex on the current level of w's search
+                while (headW < tailW && distW.get(queueW.get(headW)) == levelW) {
+                    int x = queueW.get(headW++);
+                    for (int e = offsets.get(x), end = offsets.get(x + 1); e < end; e++) {
+                        int y = targets.get(e);
+                        if (stampW.get(y) == genW) {
+                            continue;
+                        }
+                        stampW.put(y, genW);
+                        distW.put(y, levelW + 1);
+                        edgeToW.put(y, x);
+                        queueW.put(tailW++, y);
+                        if (stampV.get(y) == genV && distV.get(y) + levelW + 1 < best) {
+                            best = distV.get(y) + levelW + 1;
+                            ancestor = y;
+                        }
+                    }
+                }
+                levelW++;
+            }
+            turnV = !turnV;
+        }
+
+        sc.length = (ancestor == -1) ? -1 : best;
+        sc.ancestor = ancestor;
+        sc.headV = headV;
+        sc.headW = headW;
+        sc.tailV = tailV;
+        sc.tailW = tailW;
+        sc.depth = Math.max(levelV, levelW);
+    }
+
+    private void validateVertex(int v) {
+        if (v < 0 || v >= this.vertices) {
+            throw new IllegalArgumentException(
+                    String.format("vertex %d is not between 0 and %d", v, this.vertices - 1));
+        }
+    }
+
+    private void validateVertices(int[] v, int[] w) {
+        if (v == null || w == null) {
+            throw new IllegalArgumentException("argument is null!");
+        }
+        if (v.length == 0 || w.length == 0) {
+            throw new IllegalArgumentException("zero vertices");
+        }
+        for (int val : v) {
+            this.validateVertex(val);
+        }
+        for (int val : w) {
+            this.validateVertex(val);
+        }
+    }
+
+    /**
+     * Checks both arguments and unboxes the first, in iteration order.
+     * 
+     * @param v     - an Iterable containing vertices in digraph
+     * @param other - the other argument, only checked for null
+     * @return the vertices of v
+     */
+    private int[] toArray(Iterable<Integer> v, Iterable<Integer> other) {
+        if (v == null || other == null) {
+            throw new IllegalArgumentException("argument is null!");
+        }
+        int[] vertices = new int[16];
+        int count = 0;
+        for (Integer val : v) {
+            if (val == null) {
+                throw new IllegalArgumentException("value inside iterable is null!");
+            }
+            this.validateVertex(val);
+            if (count == vertices.length) {
+                vertices = Arrays.copyOf(vertices, 2 * count);
+            }
+            vertices[count++] = val;
+        }
+        if (count == 0) {
+            throw new IllegalArgumentException("zero vertices");
+        }
+        return Arrays.copyOf(vertices, count);
+    }
+
+    /**
+     * Compares every query of an OffHeapSAP with a {@link SAP} without ancestor
+     * index or root bound over the same digraph, whose answers and paths must be
+     * identical: on each pair of vertices of a digraph of at most 100
+     * vertices, then on random sets of up to three vertices.
+     * 
+     * @param file - an algs4 digraph file
+     * @return number of queries whose answers differ
+     */
+    private static int check(String file) {
+        CsrDigraph csr = new CsrDigraph(new Digraph(new In(file)));
+        SAP sap = new SAP(csr, false);
+        OffHeapSAP offHeap = new OffHeapSAP(new OffHeapDigraph(csr));
+        final int n = csr.V();
+        SplittableRandom random = new SplittableRandom(n);
+        final int pairs = (n <= 100) ? n * n : 0, queries = pairs + 5000;
+        int differ = 0;
+        for (int q = 0; q < queries; q++) {
+            int[] v, w;
+            if (q < pairs) {
+                v = new int[] { q / n };
+                w = new int[] { q % n };
+            } else {
+                v = random.ints(1 + random.nextInt(3), 0, n).toArray();
+                w = random.ints(1 + random.nextInt(3), 0, n).toArray();
+            }
+            SapResult expected = sap.query(v, w), actual = offHeap.query(v, w);
+            int maxDist = random.nextInt(n + 1);
+            if (expected.length() != actual.length() || expected.ancestor() != actual.ancestor()
+                    || !Arrays.equals(expected.pathFromV(), actual.pathFromV())
+                    || !Arrays.equals(expected.pathFromW(), actual.pathFromW())
+                    || sap.length(v, w) != offHeap.length(v, w) || sap.ancestor(v, w) != offHeap.ancestor(v, w)
+                    || sap.lengthWithin(v, w, maxDist) != offHeap.lengthWithin(v, w, maxDist)) {
+                differ++;
+            }
+        }
+        StdOut.printf("%s: %d queries, %d differ\n", file, queries, differ);
+        return differ;
+    }
+
+    /**
+     * Answers queries from standard input over a digraph file written by
+     * {@link OffHeapDigraph#write}, or compares the answers with those of
+     * {@link SAP} on algs4 digraph files.
+     * Usage: {@code OffHeapSAP graph.csr} or
+     * {@code OffHeapSAP -check digraph1.txt digraph2.txt ...}
+     * 
+     * @param args
+     */
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("-check")) {
+            int differ = 0;
+            for (int i = 1; i < args.length; i++) {
+                differ += check(args[i]);
+            }
+            if (differ > 0) {
+                throw new IllegalStateException(differ + " queries differ from SAP!");
+            }
+            return;
+        }
+        OffHeapSAP sap = new OffHeapSAP(OffHeapDigraph.map(Paths.get(args[0])));
+        while (!StdIn.isEmpty()) {
+            int v = StdIn.readInt();
+            int w = StdIn.readInt();
+            SapResult result = sap.query(v, w);
+            StdOut.printf("length = %d, ancestor = %d\n", result.length(), result.ancestor());
+        }
+    }
+}
@@ -1,5 +1,6 @@
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
 
 import edu.princeton.cs.algs4.In;
 import edu.princeton.cs.algs4.StdOut;
@@ -31,7 +32,8 @@ public class Outcast {
 
     /**
      * Given an array of WordNet nouns, return an outcast.
-     * Calculates the distance between a noun and every other noun.
+     * Calculates the distance between a noun and every other noun, from one
+     * ancestor label per noun.
      * 
      * @param nouns
      * @return the noun with the highest sum of distances to every other noun
@@ -48,42 +50,44 @@ public class Outcast {
         }
 
         /*
-         * calculate distances between a noun and every other noun
-         * store in a 2d array so we do not call distance between two nouns more than
-         * once
+         * run a single BFS per distinct noun over the ancestors of its synsets
+         * the distance between two nouns is then a merge of their ancestor labels,
+         * so we never search the digraph once per pair
          */
         final int length = nouns.length;
-        int[][] distances = new int[length][length];
-        for (int i = 0; i < length; i++) {
-            for (int j = 0; j < length; j++) {
-                if (j < i) {
-                    continue;
-                } else if (j == i) {
-                    distances[i][j] = 0;
-                    distances[j][i] = 0;
-                } else {
-                    int dist = this.wordnet.distance(nouns[i], nouns[j]);
-                    distances[i][j] = dist;
-                    distances[j][i] = dist;
-                }
+        for (String noun : nouns) {
+            if (noun == null) {
+                throw new IllegalArgumentException("noun cannot be null!");
             }
         }
+        Map<String, AncestorLabel> labelMap = new ConcurrentHashMap<>();
+        AncestorLabel[] labels = new AncestorLabel[length];
+        IntStream.range(0, length).parallel()
+                .forEach(i -> labels[i] = labelMap.computeIfAbsent(nouns[i], this.wordnet::label));
 
         /*
          * compute the sum of distances to other nouns for each noun
-         * map each noun to its sum
+         * each row of the distance matrix is independent, so rows run in parallel
          */
-        Map<String, Integer> sumMap = new HashMap<>();
-        for (int i = 0; i < length; i++) {
-            int sum = 0;
+        long[] sums = new long[length];
+        IntStream.range(0, length).parallel().forEach(i -> {
+            long sum = 0;
             for (int j = 0; j < length; j++) {
-                sum += distances[i][j];
+                if (j != i) {
+                    sum += labels[i].length(labels[j]);
+                }
             }
-            sumMap.put(nouns[i], sum);
-        }
+            sums[i] = sum;
+        });
 
-        // get the maximum sum value and return its key
-        return sumMap.entrySet().stream().max(Map.Entry.comparingByValue()).get().getKey();
+        // get the noun with the maximum sum
+        int outcast = 0;
+        for (int i = 1; i < length; i++) {
+            if (sums[i] > sums[outcast]) {
+                outcast = i;
+            }
+        }
+        return nouns[outcast];
     }
 
     /**
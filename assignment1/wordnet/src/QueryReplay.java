@@ -0,0 +1,558 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import edu.princeton.cs.algs4.In;
+import edu.princeton.cs.algs4.StdOut;
+
+/**
+ * QueryReplay class.
+ * <p>
+ * Replays a recorded log of WordNet queries against one WordNet instance and
+ * reports the latency distribution, throughput and allocation rate of each kind
+ * of query:
+ * 
+ * <pre>
+ * java QueryReplay synsets.txt hypernyms.txt queries.txt [-threads 8]
+ *                  [-rate 5000] [-seconds 30] [-warmup 5] [-labelIndex]
+ *                  [-cache 100000] [-snapshot file] [-label name] [-csv file]
+ * </pre>
+ * 
+ * The log has one query per line, in the same format as the requests of
+ * {@link WordNetServer}: {@code distance nounA nounB}, {@code sap nounA nounB}
+ * or {@code outcast noun1 noun2 ...}. Blank lines and lines starting with
+ * {@code #} are skipped.
+ * <p>
+ * Without {@code -rate} the replay is closed-loop: each of the threads sends
+ * its next query as soon as the previous one returns. With {@code -rate} it is
+ * open-loop: query i is due {@code i / rate} seconds after the start, and its
+ * latency is measured from when it was due rather than from when a thread got
+ * to it, so a stall also counts against the queries queued behind it. The log
+ * is replayed once, or in a loop for {@code -seconds}.
+ * <p>
+ * Allocation is read from the per-thread allocation counters of the HotSpot
+ * ThreadMXBean, over the replay threads and the threads that Outcast runs on.
+ * Each run prints a table and, with {@code -csv}, appends one row per kind of
+ * query to a CSV file, so that runs with different options and engines can be
+ * compared.
+ */
+public final class QueryReplay {
+    private static final String CSV_HEADER = "label,mode,threads,target_rate,query,count,errors,seconds,"
+            + "throughput,mean_us,p50_us,p99_us,p999_us,max_us,alloc_mb_per_s,alloc_bytes_per_query,"
+            + "gc_count,gc_ms";
+
+    /**
+     * Folded results of every query, so that none is dead code.
+     */
+    private static volatile long blackhole;
+
+    /**
+     * Kinds of query in the log.
+     */
+    public enum Kind {
+        DISTANCE, SAP, OUTCAST;
+
+        final String label = this.name().toLowerCase();
+    }
+
+    /**
+     * One parsed query; the nouns exclude the kind.
+     */
+    public static final class Query {
+        final Kind kind;
+        final String[] nouns;
+
+        Query(Kind kind, String[] nouns) {
+            this.kind = kind;
+            this.nouns = nouns;
+        }
+    }
+
+    private final WordNet wordnet;
+    private final Outcast outcast;
+    private final Query[] queries;
+    private final int threads;
+    private final double rate;
+
+    /**
+     * QueryReplay constructor.
+     * 
+     * @param wordnet - instance to query
+     * @param queries - queries in replay order
+     * @param threads - number of replay threads
+     * @param rate    - queries per second to send; 0 for closed-loop
+     */
+    public QueryReplay(WordNet wordnet, List<Query> queries, int threads, double rate) {
+        if (wordnet == null || queries == null) {
+            throw new IllegalArgumentException("wordnet and queries cannot be null!");
+        }
+        if (queries.isEmpty()) {
+            throw new IllegalArgumentException("query log is empty!");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive!");
+        }
+        if (rate < 0) {
+            throw new IllegalArgumentException("rate cannot be negative!");
+        }
+        this.wordnet = wordnet;
+        this.outcast = new Outcast(wordnet);
+        this.queries = queries.toArray(new Query[0]);
+        this.threads = threads;
+        this.rate = rate;
+    }
+
+    /**
+     * Reads a query log.
+     * 
+     * @param file - file name, resource or URL
+     * @return the queries, in file order
+     * @throws IllegalArgumentException if a line is not a valid query
+     */
+    public static List<Query> read(String file) {
+        In in = new In(file);
+        List<Query> queries = new ArrayList<>();
+        for (int line = 1; in.hasNextLine(); line++) {
+            String trimmed = in.readLine().trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            String[] fields = trimmed.split("\\s+");
+            Kind kind;
+            try {
+                kind = Kind.valueOf(fields[0].toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(
+                        String.format("%s:%d: unknown query '%s'!", file, line, fields[0]));
+            }
+            String[] nouns = Arrays.copyOfRange(fields, 1, fields.length);
+            if ((kind == Kind.OUTCAST) ? nouns.length == 0 : nouns.length != 2) {
+                throw new IllegalArgumentException(
+                        String.format("%s:%d: wrong number of nouns for %s!", file, line, kind.label));
+            }
+            queries.add(new Query(kind, nouns));
+        }
+        in.close();
+        return queries;
+    }
+
+    /**
+     * Result of one replay.
+     */
+    public static final class Result {
+        private final LogHistogram.Snapshot[] latencies;
+        private final long[] errors;
+        private final double seconds;
+        private final long allocatedBytes;
+        private final long gcCount;
+        private final long gcMillis;
+
+        private Result(LogHistogram.Snapshot[] latencies, long[] errors, double seconds, long allocatedBytes,
+                long gcCount, long gcMillis) {
+            this.latencies = latencies;
+            this.errors = errors;
+            this.seconds = seconds;
+            this.allocatedBytes = allocatedBytes;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+        }
+
+        /**
+         * @param kind - kind of query; null for all
+         * @return latencies of the queries that succeeded, in nanoseconds
+         */
+        public LogHistogram.Snapshot latency(Kind kind) {
+            if (kind != null) {
+                return this.latencies[kind.ordinal()];
+            }
+            LogHistogram.Snapshot all = this.latencies[0];
+            for (int k = 1; k < this.latencies.length; k++) {
+                all = all.plus(this.latencies[k]);
+            }
+            return all;
+        }
+
+        /**
+         * @param kind - kind of query; null for all
+         * @return number of queries that failed with an invalid noun
+         */
+        public long errors(Kind kind) {
+            return (kind != null) ? this.errors[kind.ordinal()] : Arrays.stream(this.errors).sum();
+        }
+
+        /**
+         * @return wall-clock time of the replay
+         */
+        public double seconds() {
+            return this.seconds;
+        }
+
+        /**
+         * @return bytes allocated during the replay; -1 if the JVM cannot tell
+         */
+        public long allocatedBytes() {
+            return this.allocatedBytes;
+        }
+
+        public long gcCount() {
+            return this.gcCount;
+        }
+
+        public long gcMillis() {
+            return this.gcMillis;
+        }
+    }
+
+    /**
+     * Runs the queries without recording anything, so that the JIT has compiled
+     * the hot paths before the replay.
+     * 
+     * @param seconds - how long to run
+     */
+    public void warmUp(double seconds) {
+        QueryReplay closed = new QueryReplay(this.wordnet, Arrays.asList(this.queries), this.threads, 0);
+        closed.run(seconds, false);
+    }
+
+    /**
+     * Replays the log.
+     * 
+     * @param seconds - how long to replay the log in a loop; 0 for one pass
+     * @return latencies, errors and allocation of the replay
+     */
+    public Result run(double seconds) {
+        return this.run(seconds, true);
+    }
+
+    private Result run(double seconds, boolean record) {
+        final Kind[] kinds = Kind.values();
+        LogHistogram[] latencies = new LogHistogram[kinds.length];
+        LongAdder[] errors = new LongAdder[kinds.length];
+        for (int k = 0; k < kinds.length; k++) {
+            latencies[k] = new LogHistogram();
+            errors[k] = new LongAdder();
+        }
+        AtomicLong next = new AtomicLong();
+        LongAdder workerBytes = new LongAdder();
+        final long count = (seconds > 0) ? Long.MAX_VALUE : this.queries.length;
+        final double interval = (this.rate > 0) ? 1e9 / this.rate : 0;
+
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        Map<Long, Long> allocatedBefore = allocatedBytes(threadBean);
+        long[] gcBefore = gc();
+        final long start = System.nanoTime();
+        final long end = (seconds > 0) ? start + (long) (seconds * 1e9) : Long.MAX_VALUE;
+
+        Thread[] workers = new Thread[this.threads];
+        for (int t = 0; t < this.threads; t++) {
+            workers[t] = new Thread(() -> {
+                long consumed = 0;
+                for (long i = next.getAndIncrement(); i < count; i = next.getAndIncrement()) {
+                    long due = System.nanoTime();
+                    if (interval > 0) {
+                        // wait for the query's turn, then charge it from when it was due
+                        due = start + (long) (i * interval);
+                        for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                            LockSupport.parkNanos(wait);
+                        }
+                    }
+                    if (due >= end) {
+                        break;
+                    }
+                    Query query = this.queries[(int) (i % this.queries.length)];
+                    try {
+                        consumed += this.answer(query);
+                    } catch (IllegalArgumentException e) {
+                        errors[query.kind.ordinal()].increment();
+                        continue;
+                    }
+                    if (record) {
+                        latencies[query.kind.ordinal()].record(System.nanoTime() - due);
+                    }
+                }
+                blackhole += consumed;
+                workerBytes.add(currentThreadAllocatedBytes(threadBean));
+            }, "replay-" + t);
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("replay interrupted!", e);
+            }
+        }
+        final long elapsed = System.nanoTime() - start;
+        long[] gcAfter = gc();
+
+        /*
+         * the workers report their own total before they exit; every other thread
+         * still alive, such as the common pool that Outcast runs on, counts from
+         * the start of the replay
+         */
+        long allocated = -1;
+        if (allocatedBefore != null) {
+            Map<Long, Long> allocatedAfter = allocatedBytes(threadBean);
+            allocated = workerBytes.sum();
+            for (Map.Entry<Long, Long> thread : allocatedAfter.entrySet()) {
+                allocated += thread.getValue() - allocatedBefore.getOrDefault(thread.getKey(), 0L);
+            }
+        }
+
+        LogHistogram.Snapshot[] snapshots = new LogHistogram.Snapshot[kinds.length];
+        long[] errorCounts = new long[kinds.length];
+        for (int k = 0; k < kinds.length; k++) {
+            snapshots[k] = latencies[k].snapshot();
+            errorCounts[k] = errors[k].sum();
+        }
+        return new Result(snapshots, errorCounts, elapsed / 1e9, allocated, gcAfter[0] - gcBefore[0],
+                gcAfter[1] - gcBefore[1]);
+    }
+
+    /**
+     * Answers one query.
+     * 
+     * @return a number derived from the answer
+     */
+    private long answer(Query query) {
+        switch (query.kind) {
+            case DISTANCE:
+                return this.wordnet.distance(query.nouns[0], query.nouns[1]);
+            case SAP:
+                String synset = this.wordnet.sap(query.nouns[0], query.nouns[1]);
+                return (synset == null) ? -1 : synset.length();
+            case OUTCAST:
+                return this.outcast.outcast(query.nouns).length();
+            default:
+                throw new IllegalStateException("unknown query kind " + query.kind);
+        }
+    }
+
+    /**
+     * @return HotSpot's allocation counters, if the JVM has them
+     */
+    private static com.sun.management.ThreadMXBean allocationCounters(ThreadMXBean threadBean) {
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean counters = (com.sun.management.ThreadMXBean) threadBean;
+        if (!counters.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        if (!counters.isThreadAllocatedMemoryEnabled()) {
+            counters.setThreadAllocatedMemoryEnabled(true);
+        }
+        return counters;
+    }
+
+    /**
+     * @return bytes allocated so far by each live thread; null if unsupported
+     */
+    private static Map<Long, Long> allocatedBytes(ThreadMXBean threadBean) {
+        com.sun.management.ThreadMXBean counters = allocationCounters(threadBean);
+        if (counters == null) {
+            return null;
+        }
+        long[] ids = counters.getAllThreadIds();
+        long[] bytes = counters.getThreadAllocatedBytes(ids);
+        Map<Long, Long> allocated = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] >= 0) {
+                allocated.put(ids[i], bytes[i]);
+            }
+        }
+        return allocated;
+    }
+
+    /**
+     * @return bytes allocated so far by the calling thread; 0 if unsupported
+     */
+    private static long currentThreadAllocatedBytes(ThreadMXBean threadBean) {
+        com.sun.management.ThreadMXBean counters = allocationCounters(threadBean);
+        return (counters == null) ? 0 : Math.max(0, counters.getThreadAllocatedBytes(Thread.currentThread().getId()));
+    }
+
+    /**
+     * @return total collections and milliseconds spent in them, over all collectors
+     */
+    private static long[] gc() {
+        long count = 0, millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[] { count, millis };
+    }
+
+    /**
+     * Prints a result as a table, one row per kind of query plus the total.
+     * 
+     * @param result
+     */
+    public static void print(Result result) {
+        StdOut.printf("%-10s %10s %8s %12s %10s %10s %10s %10s %10s\n", "query", "count", "errors", "ops/s",
+                "mean us", "p50 us", "p99 us", "p99.9 us", "max us");
+        for (Kind kind : rowKinds()) {
+            LogHistogram.Snapshot latency = result.latency(kind);
+            if (kind != null && latency.count() == 0 && result.errors(kind) == 0) {
+                continue;
+            }
+            StdOut.printf("%-10s %10d %8d %12.0f %10.1f %10.1f %10.1f %10.1f %10.1f\n",
+                    (kind == null) ? "all" : kind.label, latency.count(), result.errors(kind),
+                    latency.count() / result.seconds(), latency.mean() / 1e3, latency.percentile(50) / 1e3,
+                    latency.percentile(99) / 1e3, latency.percentile(99.9) / 1e3, latency.max() / 1e3);
+        }
+        long queries = result.latency(null).count() + result.errors(null);
+        if (result.allocatedBytes() >= 0) {
+            StdOut.printf("allocated %.1f MB/s, %.0f bytes/query\n", result.allocatedBytes() / 1e6 / result.seconds(),
+                    (double) result.allocatedBytes() / Math.max(1, queries));
+        }
+        StdOut.printf("%d collections, %d ms in GC over %.1f s\n", result.gcCount(), result.gcMillis(),
+                result.seconds());
+    }
+
+    /**
+     * Appends a result to a CSV file, one row per kind of query plus one for all,
+     * writing the header first if the file is new. Allocation and GC columns are
+     * only filled in on the row for all queries.
+     * 
+     * @param csv    - file to append to
+     * @param label  - name of the run, e.g. the engine options
+     * @param result - result of the run
+     */
+    public void appendCsv(Path csv, String label, Result result) {
+        try {
+            boolean header = !Files.exists(csv) || Files.size(csv) == 0;
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(csv, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+                if (header) {
+                    out.println(CSV_HEADER);
+                }
+                long queries = result.latency(null).count() + result.errors(null);
+                for (Kind kind : rowKinds()) {
+                    LogHistogram.Snapshot latency = result.latency(kind);
+                    out.printf("%s,%s,%d,%s,%s,%d,%d,%.3f,%.1f,%.2f,%.2f,%.2f,%.2f,%.2f,", csvField(label),
+                            (this.rate > 0) ? "open" : "closed", this.threads,
+                            (this.rate > 0) ? Double.toString(this.rate) : "", (kind == null) ? "all" : kind.label,
+                            latency.count(), result.errors(kind), result.seconds(),
+                            latency.count() / result.seconds(), latency.mean() / 1e3,
+                            latency.percentile(50) / 1e3, latency.percentile(99) / 1e3,
+                            latency.percentile(99.9) / 1e3, latency.max() / 1e3);
+                    if (kind == null && result.allocatedBytes() >= 0) {
+                        out.printf("%.2f,%.0f,", result.allocatedBytes() / 1e6 / result.seconds(),
+                                (double) result.allocatedBytes() / Math.max(1, queries));
+                    } else {
+                        out.print(",,");
+                    }
+                    out.println((kind == null) ? result.gcCount() + "," + result.gcMillis() : ",");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not write " + csv, e);
+        }
+    }
+
+    /**
+     * @return every kind of query, then null for all of them
+     */
+    private static Kind[] rowKinds() {
+        return Arrays.copyOf(Kind.values(), Kind.values().length + 1);
+    }
+
+    private static String csvField(String s) {
+        if (s.indexOf(',') == -1 && s.indexOf('"') == -1) {
+            return s;
+        }
+        return '"' + s.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Replays a query log with the options described above.
+     * 
+     * @param args
+     */
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            throw new IllegalArgumentException("usage: QueryReplay synsets hypernyms queries [options]");
+        }
+        int threads = 1;
+        double rate = 0, seconds = 0, warmup = 0;
+        int cache = 0;
+        boolean labelIndex = false;
+        String snapshot = null, label = null, csv = null;
+        for (int i = 3; i < args.length; i++) {
+            if (args[i].equals("-labelIndex")) {
+                labelIndex = true;
+                continue;
+            }
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("option " + args[i] + " needs a value");
+            }
+            String value = args[++i];
+            switch (args[i - 1]) {
+                case "-threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "-rate":
+                    rate = Double.parseDouble(value);
+                    break;
+                case "-seconds":
+                    seconds = Double.parseDouble(value);
+                    break;
+                case "-warmup":
+                    warmup = Double.parseDouble(value);
+                    break;
+                case "-cache":
+                    cache = Integer.parseInt(value);
+                    break;
+                case "-snapshot":
+                    snapshot = value;
+                    break;
+                case "-label":
+                    label = value;
+                    break;
+                case "-csv":
+                    csv = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + args[i - 1]);
+            }
+        }
+
+        WordNet.Options options = new WordNet.Options().labelIndex(labelIndex).cacheCapacity(cache);
+        WordNet wordnet = (snapshot != null) ? WordNet.load(Paths.get(snapshot), options)
+                : new WordNet(args[0], args[1], options);
+        if (label == null) {
+            label = (labelIndex ? "labelIndex" : "bfs") + ((cache > 0) ? "+cache" + cache : "");
+        }
+        QueryReplay replay = new QueryReplay(wordnet, read(args[2]), threads, rate);
+        if (warmup > 0) {
+            replay.warmUp(warmup);
+        }
+        Result result = replay.run(seconds);
+        StdOut.printf("%s, %s, %d threads%s\n", label, (rate > 0) ? "open loop" : "closed loop", threads,
+                (rate > 0) ? String.format(", %.0f queries/s", rate) : "");
+        print(result);
+        if (csv != null) {
+            replay.appendCsv(Paths.get(csv), label, result);
+        }
+        StdOut.println((blackhole == 42) ? "" : "done");
+    }
+}
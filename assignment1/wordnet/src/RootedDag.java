@@ -0,0 +1,208 @@
+import java.util.Arrays;
+
+/**
+ * RootedDag class.
+ * <p>
+ * Structure of a digraph that is a rooted DAG, checked in one linear-time pass:
+ * it is acyclic and has exactly one vertex with no outgoing edges, the root,
+ * which is therefore an ancestor of every other vertex. The pass keeps a
+ * topological order starting at the root and the depth of every vertex, i.e.
+ * the length of its shortest directed path to the root.
+ * <p>
+ * Since the root is a common ancestor of any two vertices, the sum of their
+ * depths bounds the length of their shortest ancestral path from above before
+ * any search starts.
+ */
+public final class RootedDag {
+    private final int root;
+    private final int[] order;
+    private final int[] depth;
+    private final int height;
+
+    /**
+     * Validates a digraph and indexes its structure.
+     * 
+     * @param G - a CsrDigraph
+     * @throws IllegalArgumentException if G is not a rooted DAG
+     */
+    public RootedDag(CsrDigraph G) {
+        this(G, (G == null) ? null : G.reverse());
+    }
+
+    /**
+     * Validates a digraph whose reverse is already built.
+     * 
+     * @param G       - a CsrDigraph
+     * @param reverse - G with every edge reversed
+     * @throws IllegalArgumentException if G is not a rooted DAG
+     */
+    RootedDag(CsrDigraph G, CsrDigraph reverse) {
+        if (G == null) {
+            throw new IllegalArgumentException("digraph cannot be null!");
+        }
+        final int n = G.V();
+        if (n == 0) {
+            throw new IllegalArgumentException("not a rooted DAG: digraph is empty!");
+        }
+
+        /*
+         * Kahn's algorithm from the root down: a vertex is ready once all of its
+         * hypernyms have been placed, so its depth is final by then
+         */
+        int[] pending = new int[n];
+        this.order = new int[n];
+        this.depth = new int[n];
+        int tail = 0;
+        int root = -1;
+        for (int v = 0; v < n; v++) {
+            pending[v] = G.offsets[v + 1] - G.offsets[v];
+            if (pending[v] == 0) {
+                if (root != -1) {
+                    throw new IllegalArgumentException(
+                            String.format("not a rooted DAG: %d and %d are both roots!", root, v));
+                }
+                root = v;
+                this.order[tail++] = v;
+            }
+        }
+        if (root == -1) {
+            throw new IllegalArgumentException("not a rooted DAG: every vertex has a hypernym!");
+        }
+
+        int height = 0;
+        for (int head = 0; head < tail; head++) {
+            int x = this.order[head];
+            height = Math.max(height, this.depth[x]);
+            for (int e = reverse.offsets[x]; e < reverse.offsets[x + 1]; e++) {
+                int y = reverse.targets[e];
+                if (--pending[y] == 0) {
+                    // every hypernym of y is placed, so the shortest of them is known
+                    int d = Integer.MAX_VALUE;
+                    for (int f = G.offsets[y]; f < G.offsets[y + 1]; f++) {
+                        d = Math.min(d, this.depth[G.targets[f]] + 1);
+                    }
+                    this.depth[y] = d;
+                    this.order[tail++] = y;
+                }
+            }
+        }
+        if (tail < n) {
+            throw new IllegalArgumentException(
+                    String.format("not a rooted DAG: %d vertices are on or above a cycle!", n - tail));
+        }
+        this.root = root;
+        this.height = height;
+    }
+
+    /**
+     * Structure of a rooted DAG that grew from the one {@code previous} was built
+     * on, by edges out of stale vertices and by new vertices whose hypernyms are
+     * all old. Only stale and new vertices get their depth recomputed; G is
+     * trusted to still be acyclic.
+     * 
+     * @param G        - a CsrDigraph
+     * @param previous - structure of an earlier version of G
+     * @param stale    - stale[v] is true if the ancestors of v changed since
+     *                 previous was built
+     */
+    RootedDag(CsrDigraph G, RootedDag previous, boolean[] stale) {
+        final int n = G.V(), kept = previous.order.length;
+        this.root = previous.root;
+        this.order = new int[n];
+        this.depth = Arrays.copyOf(previous.depth, n);
+
+        /*
+         * a vertex that is not stale has no stale hypernym, since that would make
+         * it stale too: so the others in their old order, then the stale ones in
+         * theirs, then the new ones still form a topological order
+         */
+        int tail = 0;
+        for (int i = 0; i < kept; i++) {
+            if (!stale[previous.order[i]]) {
+                this.order[tail++] = previous.order[i];
+            }
+        }
+        final int first = tail;
+        for (int i = 0; i < kept; i++) {
+            if (stale[previous.order[i]]) {
+                this.order[tail++] = previous.order[i];
+            }
+        }
+        for (int v = kept; v < n; v++) {
+            this.order[tail++] = v;
+        }
+        for (int i = first; i < n; i++) {
+            int y = this.order[i];
+            int d = Integer.MAX_VALUE;
+            for (int f = G.offsets[y]; f < G.offsets[y + 1]; f++) {
+                d = Math.min(d, this.depth[G.targets[f]] + 1);
+            }
+            this.depth[y] = d;
+        }
+
+        // stale depths only shrink, so the height may too
+        int height = 0;
+        for (int v = 0; v < n; v++) {
+            height = Math.max(height, this.depth[v]);
+        }
+        this.height = height;
+    }
+
+    /**
+     * @return the root, which is an ancestor of every vertex
+     */
+    public int root() {
+        return this.root;
+    }
+
+    /**
+     * Length of the shortest directed path from v to the root.
+     * 
+     * @param v - a vertex in digraph
+     * @return depth of v; 0 for the root
+     */
+    public int depth(int v) {
+        return this.depth[v];
+    }
+
+    /**
+     * @return the largest depth of any vertex
+     */
+    public int height() {
+        return this.height;
+    }
+
+    /**
+     * Vertex at a position of the topological order. The root comes first, and
+     * every vertex comes after all of its hypernyms.
+     * 
+     * @param i - position between 0 and V - 1
+     * @return the i-th vertex in topological order
+     */
+    public int order(int i) {
+        return this.order[i];
+    }
+
+    /**
+     * Shortest directed path from v up to the root, following hypernyms whose
+     * depth is one less at every step.
+     * 
+     * @param G - the digraph this index was built from
+     * @param v - a vertex in digraph
+     * @return vertices on the path starting at v, ending at the root
+     */
+    int[] pathToRoot(CsrDigraph G, int v) {
+        int[] path = new int[this.depth[v] + 1];
+        path[0] = v;
+        for (int i = 1; i < path.length; i++) {
+            int x = path[i - 1];
+            for (int e = G.offsets[x]; e < G.offsets[x + 1]; e++) {
+                if (this.depth[G.targets[e]] == this.depth[x] - 1) {
+                    path[i] = G.targets[e];
+                    break;
+                }
+            }
+        }
+        return path;
+    }
+}
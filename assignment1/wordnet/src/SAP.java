@@ -1,4 +1,9 @@
-import edu.princeton.cs.algs4.BreadthFirstDirectedPaths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
 import edu.princeton.cs.algs4.Digraph;
 import edu.princeton.cs.algs4.In;
 import edu.princeton.cs.algs4.StdIn;
@@ -15,20 +20,238 @@ import edu.princeton.cs.algs4.StdOut;
  * path, but not a directed path.
  */
 public class SAP {
-    private final Digraph digraph;
+    /**
+     * Copy of the digraph in compressed sparse row form, so that traversals scan
+     * flat int arrays instead of allocating a Bag iterator per vertex.
+     */
+    private final CsrDigraph digraph;
     private final int vertices;
 
+    /**
+     * Per-thread search buffers, so that concurrent callers sharing one SAP never
+     * allocate per query. Each thread holds eight int arrays of size V.
+     */
+    private final ThreadLocal<Scratch> scratch;
+
+    /**
+     * Optional precomputed ancestor labels answering queries without a BFS; null
+     * if disabled.
+     */
+    private final AncestorIndex index;
+
+    /**
+     * Optional depths of a rooted DAG, whose root bounds every search before it
+     * starts; null if the digraph is not known to be one.
+     */
+    private final RootedDag dag;
+
+    /**
+     * Optional per-query statistics; null if disabled, which costs one read and
+     * one null check per query.
+     */
+    private volatile SapMetrics metrics;
+
     /**
      * SAP constructor takes a digraph (not necessarily a DAG).
      * 
      * @param G - a Digraph
      */
     public SAP(Digraph G) {
+        this(G, false);
+    }
+
+    /**
+     * SAP constructor takes a digraph (not necessarily a DAG), optionally
+     * precomputing an {@link AncestorIndex} so that queries merge two ancestor
+     * labels instead of searching the digraph. Only worth it for digraphs with
+     * small ancestor sets, such as rooted DAGs.
+     * 
+     * @param G          - a Digraph
+     * @param labelIndex - true to build the ancestor index
+     */
+    public SAP(Digraph G, boolean labelIndex) {
         if (G == null) {
             throw new IllegalArgumentException("digraph cannot be null!");
         }
-        this.digraph = new Digraph(G); // create a deepcopy of digraph so it is immutable
+        this.digraph = new CsrDigraph(G); // copy the digraph so it is immutable
         this.vertices = G.V();
+        final int n = this.vertices;
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(n));
+        this.index = labelIndex ? new AncestorIndex(this.digraph) : null;
+        this.dag = null;
+    }
+
+    /**
+     * SAP constructor over a digraph already in compressed form, which is shared
+     * rather than copied since it is immutable.
+     * 
+     * @param G          - a CsrDigraph
+     * @param labelIndex - true to build the ancestor index
+     */
+    SAP(CsrDigraph G, boolean labelIndex) {
+        this(G, labelIndex, null);
+    }
+
+    /**
+     * SAP constructor over a compressed digraph known to be a rooted DAG. Every
+     * search then starts with the path through the root as its best candidate,
+     * so neither side expands past the level where it could still improve on
+     * that path.
+     * 
+     * @param G          - a CsrDigraph
+     * @param labelIndex - true to build the ancestor index
+     * @param dag        - structure of G, or null if G is not a rooted DAG
+     */
+    SAP(CsrDigraph G, boolean labelIndex, RootedDag dag) {
+        this(G, (labelIndex && G != null) ? new AncestorIndex(G) : null, dag);
+    }
+
+    /**
+     * SAP constructor over a compressed digraph with an ancestor index already
+     * built for it, e.g. one carried over from an earlier version of the digraph.
+     * 
+     * @param G     - a CsrDigraph
+     * @param index - ancestor index of G, or null
+     * @param dag   - structure of G, or null if G is not a rooted DAG
+     */
+    SAP(CsrDigraph G, AncestorIndex index, RootedDag dag) {
+        if (G == null) {
+            throw new IllegalArgumentException("digraph cannot be null!");
+        }
+        this.digraph = G;
+        this.vertices = G.V();
+        final int n = this.vertices;
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(n));
+        this.index = index;
+        this.dag = dag;
+    }
+
+    /**
+     * Reusable search buffers owned by a single thread.
+     * <p>
+     * A vertex counts as visited by a search only if its stamp equals the current
+     * generation, so starting a new query is a single increment instead of
+     * clearing or reallocating the arrays.
+     */
+    private static final class Scratch {
+        private final int[] stampV;
+        private final int[] stampW;
+        private final int[] distV;
+        private final int[] distW;
+        private final int[] edgeToV;
+        private final int[] edgeToW;
+        private final int[] queueV;
+        private final int[] queueW;
+        private int generationV;
+        private int generationW;
+        private int tailV;
+        private int tailW;
+
+        // extent of the last search, for metrics
+        private int headV;
+        private int headW;
+        private int depth;
+
+        // paths of this length or longer are not searched for
+        private int limit;
+
+        // results of the last search
+        private int length;
+        private int ancestor;
+        // sources closest to the root, if the result is the path through it
+        private int rootV;
+        private int rootW;
+
+        private Scratch(int n) {
+            this.stampV = new int[n];
+            this.stampW = new int[n];
+            this.distV = new int[n];
+            this.distW = new int[n];
+            this.edgeToV = new int[n];
+            this.edgeToW = new int[n];
+            this.queueV = new int[n];
+            this.queueW = new int[n];
+        }
+
+        /**
+         * Starts a new query by invalidating every mark of the previous one.
+         */
+        private void reset() {
+            this.resetV();
+            this.resetW();
+            this.limit = Integer.MAX_VALUE;
+        }
+
+        private void resetV() {
+            if (++this.generationV == 0) {
+                // stamps wrapped around; clear them once so stale marks cannot match
+                Arrays.fill(this.stampV, 0);
+                this.generationV = 1;
+            }
+            this.tailV = 0;
+        }
+
+        /**
+         * Starts a new search on the w side only, keeping the v side's marks.
+         */
+        private void resetW() {
+            if (++this.generationW == 0) {
+                Arrays.fill(this.stampW, 0);
+                this.generationW = 1;
+            }
+            this.tailW = 0;
+        }
+
+        private void addV(int s) {
+            if (this.stampV[s] != this.generationV) {
+                this.stampV[s] = this.generationV;
+                this.distV[s] = 0;
+                this.edgeToV[s] = -1;
+                this.queueV[this.tailV++] = s;
+            }
+        }
+
+        private void addW(int s) {
+            if (this.stampW[s] != this.generationW) {
+                this.stampW[s] = this.generationW;
+                this.distW[s] = 0;
+                this.edgeToW[s] = -1;
+                this.queueW[this.tailW++] = s;
+            }
+        }
+    }
+
+    /**
+     * The immutable digraph this SAP searches.
+     * 
+     * @return the digraph in compressed form
+     */
+    CsrDigraph digraph() {
+        return this.digraph;
+    }
+
+    /**
+     * Starts recording statistics of every BFS query into {@code metrics}, or
+     * stops recording if it is null.
+     * 
+     * @param metrics - where to record, shared by any number of SAP objects
+     */
+    public void metrics(SapMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the metrics being recorded into; null if disabled
+     */
+    public SapMetrics metrics() {
+        return this.metrics;
+    }
+
+    /**
+     * @return the ancestor index; null if disabled
+     */
+    AncestorIndex index() {
+        return this.index;
     }
 
     /**
@@ -40,20 +263,13 @@ public class SAP {
      * @return length of shortest ancestral path; -1 if no path exists
      */
     public int length(int v, int w) {
-        BreadthFirstDirectedPaths vPaths = new BreadthFirstDirectedPaths(this.digraph, v);
-        BreadthFirstDirectedPaths wPaths = new BreadthFirstDirectedPaths(this.digraph, w);
-
-        int minDist = Integer.MAX_VALUE;
-        for (int i = 0; i < this.vertices; i++) {
-            // there is a path from both v and w to i -- common ancestor exist
-            if (vPaths.hasPathTo(i) && wPaths.hasPathTo(i)) {
-                int dist = vPaths.distTo(i) + wPaths.distTo(i);
-                if (dist < minDist) {
-                    minDist = dist; // only save shortest ancestral path
-                }
-            }
+        this.validateVertex(v);
+        this.validateVertex(w);
+        if (this.index != null) {
+            int x = this.index.ancestor(v, w);
+            return (x == -1) ? -1 : this.index.distTo(v, x) + this.index.distTo(w, x);
         }
-        return (minDist < Integer.MAX_VALUE) ? minDist : -1;
+        return this.search(v, w).length;
     }
 
     /**
@@ -66,23 +282,12 @@ public class SAP {
      *         path exists
      */
     public int ancestor(int v, int w) {
-        BreadthFirstDirectedPaths vPaths = new BreadthFirstDirectedPaths(this.digraph, v);
-        BreadthFirstDirectedPaths wPaths = new BreadthFirstDirectedPaths(this.digraph, w);
-
-        final int minDist = this.length(v, w);
-        if (minDist == -1) {
-            return -1;
+        this.validateVertex(v);
+        this.validateVertex(w);
+        if (this.index != null) {
+            return this.index.ancestor(v, w);
         }
-
-        for (int i = 0; i < this.vertices; i++) {
-            // there is a path from both v and w to i -- common ancestor exist
-            if (vPaths.hasPathTo(i) && wPaths.hasPathTo(i)) {
-                if (vPaths.distTo(i) + wPaths.distTo(i) == minDist) {
-                    return i;
-                }
-            }
-        }
-        return -1;
+        return this.search(v, w).ancestor;
     }
 
     /**
@@ -95,19 +300,12 @@ public class SAP {
      */
     public int length(Iterable<Integer> v, Iterable<Integer> w) {
         this.validateVertices(v, w);
-        BreadthFirstDirectedPaths vPaths = new BreadthFirstDirectedPaths(this.digraph, v);
-        BreadthFirstDirectedPaths wPaths = new BreadthFirstDirectedPaths(this.digraph, w);
-
-        int minDist = Integer.MAX_VALUE;
-        for (int i = 0; i < this.vertices; i++) {
-            if (vPaths.hasPathTo(i) && wPaths.hasPathTo(i)) {
-                int dist = vPaths.distTo(i) + wPaths.distTo(i);
-                if (dist < minDist) {
-                    minDist = dist;
-                }
-            }
+        if (this.index != null) {
+            int x = this.index.ancestor(v, w);
+            return (x == -1) ? -1
+                    : this.index.distTo(this.index.nearest(v, x), x) + this.index.distTo(this.index.nearest(w, x), x);
         }
-        return (minDist < Integer.MAX_VALUE) ? minDist : -1;
+        return this.search(v, w).length;
     }
 
     /**
@@ -121,34 +319,777 @@ public class SAP {
      */
     public int ancestor(Iterable<Integer> v, Iterable<Integer> w) {
         this.validateVertices(v, w);
-        BreadthFirstDirectedPaths vPaths = new BreadthFirstDirectedPaths(this.digraph, v);
-        BreadthFirstDirectedPaths wPaths = new BreadthFirstDirectedPaths(this.digraph, w);
-
-        final int minDist = this.length(v, w);
-        for (int i = 0; i < this.vertices; i++) {
-            if (vPaths.hasPathTo(i) && wPaths.hasPathTo(i)) {
-                if (vPaths.distTo(i) + wPaths.distTo(i) == minDist) {
-                    return i;
+        if (this.index != null) {
+            return this.index.ancestor(v, w);
+        }
+        return this.search(v, w).ancestor;
+    }
+
+    /**
+     * Computes the length of shortest ancestral path between v and w if it is at
+     * most maxDist. Both searches stop expanding once their next level could only
+     * lead to longer paths, so the cost depends on the bound rather than on the
+     * size of the ancestor sets.
+     * 
+     * @param v       - a vertex in digraph
+     * @param w       - a vertex in digraph
+     * @param maxDist - largest length of interest
+     * @return length of shortest ancestral path; -1 if no path of length at most
+     *         maxDist exists
+     */
+    public int lengthWithin(int v, int w, int maxDist) {
+        this.validateVertex(v);
+        this.validateVertex(w);
+        return this.lengthWithin(new int[] { v }, new int[] { w }, maxDist);
+    }
+
+    /**
+     * Same as {@link #lengthWithin(int, int, int)} between any vertex in v and
+     * any vertex in w.
+     * 
+     * @param v       - an Iterable containing vertices in digraph
+     * @param w       - an Iterable containing vertices in digraph
+     * @param maxDist - largest length of interest
+     * @return length of shortest ancestral path; -1 if no path of length at most
+     *         maxDist exists
+     */
+    public int lengthWithin(Iterable<Integer> v, Iterable<Integer> w, int maxDist) {
+        this.validateVertices(v, w);
+        int[] sourcesV = new int[this.validateVertices(v)];
+        int[] sourcesW = new int[this.validateVertices(w)];
+        int i = 0;
+        for (int s : v) {
+            sourcesV[i++] = s;
+        }
+        i = 0;
+        for (int s : w) {
+            sourcesW[i++] = s;
+        }
+        return this.lengthWithin(sourcesV, sourcesW, maxDist);
+    }
+
+    /**
+     * Same as {@link #lengthWithin(int, int, int)} between any vertex in v and
+     * any vertex in w, without boxing the vertices.
+     * 
+     * @param v       - vertices in digraph
+     * @param w       - vertices in digraph
+     * @param maxDist - largest length of interest
+     * @return length of shortest ancestral path; -1 if no path of length at most
+     *         maxDist exists
+     */
+    public int lengthWithin(int[] v, int[] w, int maxDist) {
+        this.validateVertices(v, w);
+        if (maxDist < 0) {
+            throw new IllegalArgumentException("maxDist cannot be negative!");
+        }
+        return this.lengthWithin(v, 0, v.length, w, 0, w.length, maxDist);
+    }
+
+    /**
+     * Computes the shortest ancestral path between two vertices v and w in one
+     * traversal, returning its length, ancestor and both half-paths.
+     * 
+     * @param v - a vertex in digraph
+     * @param w - a vertex in digraph
+     * @return the shortest ancestral path; {@link SapResult#hasPath()} is false if
+     *         no path exists
+     */
+    public SapResult query(int v, int w) {
+        this.validateVertex(v);
+        this.validateVertex(w);
+        if (this.index != null) {
+            return this.toResult(v, w, this.index.ancestor(v, w));
+        }
+        return this.toResult(this.search(v, w));
+    }
+
+    /**
+     * Computes the shortest ancestral path between any vertex in v and any vertex
+     * in w in one traversal, returning its length, ancestor and both half-paths.
+     * 
+     * @param v - an Iterable containing vertices in digraph
+     * @param w - an Iterable containing vertices in digraph
+     * @return the shortest ancestral path; {@link SapResult#hasPath()} is false if
+     *         no path exists
+     */
+    public SapResult query(Iterable<Integer> v, Iterable<Integer> w) {
+        this.validateVertices(v, w);
+        if (this.index != null) {
+            int x = this.index.ancestor(v, w);
+            return (x == -1) ? SapResult.NONE : this.toResult(this.index.nearest(v, x), this.index.nearest(w, x), x);
+        }
+        return this.toResult(this.search(v, w));
+    }
+
+    /**
+     * Computes the length of shortest ancestral path between any vertex in v and
+     * any vertex in w, without boxing the vertices.
+     * 
+     * @param v - vertices in digraph
+     * @param w - vertices in digraph
+     * @return length of shortest ancestral path; -1 if no path exists
+     */
+    public int length(int[] v, int[] w) {
+        this.validateVertices(v, w);
+        return this.length(v, 0, v.length, w, 0, w.length);
+    }
+
+    /**
+     * Finds a common ancestor of the shortest ancestral path between any vertex in
+     * v and any vertex in w, without boxing the vertices.
+     * 
+     * @param v - vertices in digraph
+     * @param w - vertices in digraph
+     * @return the common ancestor in the shortest ancestral path between v and w;
+     *         -1 if no path exists
+     */
+    public int ancestor(int[] v, int[] w) {
+        this.validateVertices(v, w);
+        return this.ancestor(v, 0, v.length, w, 0, w.length);
+    }
+
+    /**
+     * Same as {@link #query(Iterable, Iterable)} for vertex sets given as arrays.
+     * 
+     * @param v - vertices in digraph
+     * @param w - vertices in digraph
+     * @return the shortest ancestral path; {@link SapResult#hasPath()} is false if
+     *         no path exists
+     */
+    public SapResult query(int[] v, int[] w) {
+        this.validateVertices(v, w);
+        return this.query(v, 0, v.length, w, 0, w.length);
+    }
+
+    // overloads over the source ranges v[fromV .. toV) and w[fromW .. toW), such
+    // as the synset ids of two nouns in the shared array of a NounIndex, which
+    // callers then need not copy; the ranges are trusted to be non-empty and valid
+
+    /**
+     * Same as {@link #length(int[], int[])} between two ranges of sources.
+     */
+    int length(int[] v, int fromV, int toV, int[] w, int fromW, int toW) {
+        if (this.index != null) {
+            int x = this.index.ancestor(v, fromV, toV, w, fromW, toW);
+            return (x == -1) ? -1 : this.index.distTo(v, fromV, toV, x) + this.index.distTo(w, fromW, toW, x);
+        }
+        return this.search(v, fromV, toV, w, fromW, toW, Integer.MAX_VALUE).length;
+    }
+
+    /**
+     * Same as {@link #ancestor(int[], int[])} between two ranges of sources.
+     */
+    int ancestor(int[] v, int fromV, int toV, int[] w, int fromW, int toW) {
+        if (this.index != null) {
+            return this.index.ancestor(v, fromV, toV, w, fromW, toW);
+        }
+        return this.search(v, fromV, toV, w, fromW, toW, Integer.MAX_VALUE).ancestor;
+    }
+
+    /**
+     * Same as {@link #query(int[], int[])} between two ranges of sources.
+     */
+    SapResult query(int[] v, int fromV, int toV, int[] w, int fromW, int toW) {
+        if (this.index != null) {
+            int x = this.index.ancestor(v, fromV, toV, w, fromW, toW);
+            return (x == -1) ? SapResult.NONE
+                    : this.toResult(this.index.nearest(v, fromV, toV, x), this.index.nearest(w, fromW, toW, x), x);
+        }
+        return this.toResult(this.search(v, fromV, toV, w, fromW, toW, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Same as {@link #lengthWithin(int[], int[], int)} between two ranges of
+     * sources.
+     */
+    int lengthWithin(int[] v, int fromV, int toV, int[] w, int fromW, int toW, int maxDist) {
+        int length;
+        if (this.index != null) {
+            int x = this.index.ancestor(v, fromV, toV, w, fromW, toW);
+            length = (x == -1) ? -1 : this.index.distTo(v, fromV, toV, x) + this.index.distTo(w, fromW, toW, x);
+        } else {
+            int limit = (maxDist == Integer.MAX_VALUE) ? maxDist : maxDist + 1;
+            length = this.search(v, fromV, toV, w, fromW, toW, limit).length;
+        }
+        return (length <= maxDist) ? length : -1;
+    }
+
+    /**
+     * Distances from vertex v to all of its ancestors, computed by one BFS. Keep
+     * the label to compare v against many other vertices without searching again.
+     * 
+     * @param v - a vertex in digraph
+     * @return the ancestor label of v
+     */
+    public AncestorLabel label(int v) {
+        this.validateVertex(v);
+        return this.label(new int[] { v });
+    }
+
+    /**
+     * Distances from the closest vertex in v to all of their ancestors, computed
+     * by one multi-source BFS.
+     * 
+     * @param v - an Iterable containing vertices in digraph
+     * @return the ancestor label of v
+     */
+    public AncestorLabel label(Iterable<Integer> v) {
+        if (v == null) {
+            throw new IllegalArgumentException("argument is null!");
+        }
+        int[] sources = new int[this.validateVertices(v)];
+        int i = 0;
+        for (int s : v) {
+            sources[i++] = s;
+        }
+        return this.label(sources);
+    }
+
+    /**
+     * Ancestor label of an already validated vertex set.
+     */
+    AncestorLabel label(int[] v) {
+        Scratch sc = this.scratch.get();
+        sc.resetV();
+        for (int s : v) {
+            sc.addV(s);
+        }
+        this.expandV(sc);
+
+        // sort the tree by ancestor id, packing the distance into the low bits
+        final int size = sc.tailV;
+        long[] entries = new long[size];
+        for (int i = 0; i < size; i++) {
+            entries[i] = ((long) sc.queueV[i] << 32) | sc.distV[sc.queueV[i]];
+        }
+        Arrays.sort(entries);
+        int[] ancestors = new int[size];
+        int[] dists = new int[size];
+        for (int i = 0; i < size; i++) {
+            ancestors[i] = (int) (entries[i] >>> 32);
+            dists[i] = (int) entries[i];
+        }
+        return new AncestorLabel(ancestors, dists);
+    }
+
+    /**
+     * Receives the results of a batch query as they are computed. Called from
+     * worker threads, concurrently and in no particular order, so implementations
+     * must be thread-safe. Results of a group of pairs sharing a source arrive
+     * together once the group is done, when the worker's search buffers are free
+     * again, so a sink may call back into the same SAP.
+     */
+    public interface ResultSink {
+        /**
+         * @param index  - position of the pair in the batch
+         * @param length - length of its shortest ancestral path; -1 if no path exists
+         */
+        void accept(int index, int length);
+    }
+
+    /**
+     * Computes the lengths of shortest ancestral paths between v[i] and w[i] for
+     * every i. Pairs sharing a source in v reuse one BFS tree from that source,
+     * and the groups run in parallel on the common ForkJoinPool.
+     * 
+     * @param v - vertices in digraph
+     * @param w - vertices in digraph, same length as v
+     * @return the length for each pair, in input order; -1 where no path exists
+     */
+    public int[] lengths(int[] v, int[] w) {
+        if (v == null) {
+            throw new IllegalArgumentException("argument is null!");
+        }
+        // the pairs are validated by the streaming overload
+        int[] lengths = new int[v.length];
+        this.lengths(v, w, (i, length) -> lengths[i] = length);
+        return lengths;
+    }
+
+    /**
+     * Same as {@link #lengths(int[], int[])}, but streams each length to
+     * {@code sink} as soon as it is computed instead of collecting them.
+     * 
+     * @param v    - vertices in digraph
+     * @param w    - vertices in digraph, same length as v
+     * @param sink - receives (index, length) for every pair
+     */
+    public void lengths(int[] v, int[] w, ResultSink sink) {
+        this.validatePairs(v, w);
+        if (sink == null) {
+            throw new IllegalArgumentException("sink cannot be null!");
+        }
+
+        // one shared array per distinct vertex, so pairs with the same source group together
+        Map<Integer, int[]> singletons = new HashMap<>();
+        int[][] vSets = new int[v.length][];
+        int[][] wSets = new int[w.length][];
+        for (int i = 0; i < v.length; i++) {
+            vSets[i] = singletons.computeIfAbsent(v[i], x -> new int[] { x });
+            wSets[i] = singletons.computeIfAbsent(w[i], x -> new int[] { x });
+        }
+        this.lengths(vSets, wSets, sink);
+    }
+
+    /**
+     * Batch engine over vertex sets. Pairs whose v sets are the same array are
+     * grouped; each group runs one full BFS from its sources and then a bounded
+     * BFS per partner against that tree.
+     * 
+     * @param v    - source set of each pair; equal sets should share one array
+     * @param w    - partner set of each pair
+     * @param sink - receives (index, length) for every pair
+     */
+    void lengths(int[][] v, int[][] w, ResultSink sink) {
+        final int n = v.length;
+
+        // counting sort of the pair indices by group, in order of first appearance
+        Map<int[], Integer> groupOf = new IdentityHashMap<>();
+        int[] group = new int[n];
+        for (int i = 0; i < n; i++) {
+            Integer g = groupOf.get(v[i]);
+            if (g == null) {
+                g = groupOf.size();
+                groupOf.put(v[i], g);
+            }
+            group[i] = g;
+        }
+        final int groups = groupOf.size();
+        int[] start = new int[groups + 1];
+        for (int i = 0; i < n; i++) {
+            start[group[i] + 1]++;
+        }
+        for (int g = 0; g < groups; g++) {
+            start[g + 1] += start[g];
+        }
+        int[] order = new int[n];
+        int[] next = Arrays.copyOf(start, groups);
+        for (int i = 0; i < n; i++) {
+            order[next[group[i]]++] = i;
+        }
+
+        IntStream.range(0, groups).parallel()
+                .forEach(g -> this.lengths(v, w, order, start[g], start[g + 1], sink));
+    }
+
+    /**
+     * Runs the pairs {@code order[from .. to)}, which all share the same v set.
+     */
+    private void lengths(int[][] v, int[][] w, int[] order, int from, int to, ResultSink sink) {
+        if (this.index != null) {
+            for (int k = from; k < to; k++) {
+                int i = order[k];
+                int x = this.index.ancestor(v[i], w[i]);
+                sink.accept(i, (x == -1) ? -1 : this.index.distTo(v[i], x) + this.index.distTo(w[i], x));
+            }
+            return;
+        }
+
+        Scratch sc = this.scratch.get();
+        if (to - from == 1) {
+            // nothing to share; a bidirectional search visits less than a full tree
+            int i = order[from];
+            sc.reset();
+            for (int s : v[i]) {
+                sc.addV(s);
+            }
+            for (int s : w[i]) {
+                sc.addW(s);
+            }
+            this.search(sc);
+            sink.accept(i, sc.length);
+            return;
+        }
+
+        sc.resetV();
+        for (int s : v[order[from]]) {
+            sc.addV(s);
+        }
+        this.expandV(sc);
+        int[] lengths = new int[to - from];
+        for (int k = from; k < to; k++) {
+            sc.resetW();
+            for (int s : w[order[k]]) {
+                sc.addW(s);
+            }
+            lengths[k - from] = this.searchW(sc);
+        }
+        // deliver once the group's tree is no longer needed, so the sink may query this SAP
+        for (int k = from; k < to; k++) {
+            sink.accept(order[k], lengths[k - from]);
+        }
+    }
+
+    /**
+     * Runs the BFS of the v side to completion, so that every ancestor of the v
+     * sources is stamped with its distance.
+     */
+    private void expandV(Scratch sc) {
+        final int genV = sc.generationV;
+        final int[] stampV = sc.stampV, distV = sc.distV, edgeToV = sc.edgeToV, queueV = sc.queueV;
+        final int[] offsets = this.digraph.offsets, targets = this.digraph.targets;
+        int tailV = sc.tailV;
+        for (int headV = 0; headV < tailV; headV++) {
+            int x = queueV[headV];
+            for (int e = offsets[x]; e < offsets[x + 1]; e++) {
+                int y = targets[e];
+                if (stampV[y] != genV) {
+                    stampV[y] = genV;
+                    distV[y] = distV[x] + 1;
+                    edgeToV[y] = x;
+                    queueV[tailV++] = y;
                 }
             }
         }
-        return -1;
+        sc.tailV = tailV;
+    }
+
+    /**
+     * BFS of the w side against a complete v tree built by {@link #expandV}. Every
+     * vertex reached is checked against the tree, and the search stops once the
+     * next level is no shorter than the best path found.
+     * 
+     * @return length of shortest ancestral path; -1 if no path exists
+     */
+    private int searchW(Scratch sc) {
+        final int genV = sc.generationV, genW = sc.generationW;
+        final int[] stampV = sc.stampV, distV = sc.distV;
+        final int[] stampW = sc.stampW, distW = sc.distW, edgeToW = sc.edgeToW, queueW = sc.queueW;
+        final int[] offsets = this.digraph.offsets, targets = this.digraph.targets;
+        int headW = 0, tailW = sc.tailW;
+
+        int best = Integer.MAX_VALUE;
+        for (int i = 0; i < tailW; i++) {
+            int x = queueW[i];
+            if (stampV[x] == genV && distV[x] < best) {
+                best = distV[x];
+            }
+        }
+
+        for (int levelW = 0; headW < tailW && levelW + 1 < best; levelW++) {
+            while (headW < tailW && distW[queueW[headW]] == levelW) {
+                int x = queueW[headW++];
+                for (int e = offsets[x]; e < offsets[x + 1]; e++) {
+                    int y = targets[e];
+                    if (stampW[y] == genW) {
+                        continue;
+                    }
+                    stampW[y] = genW;
+                    distW[y] = levelW + 1;
+                    edgeToW[y] = x;
+                    queueW[tailW++] = y;
+                    if (stampV[y] == genV && distV[y] + levelW + 1 < best) {
+                        best = distV[y] + levelW + 1;
+                    }
+                }
+            }
+        }
+        return (best < Integer.MAX_VALUE) ? best : -1;
+    }
+
+    /**
+     * Builds an immutable result from the last search, walking the edgeTo links
+     * back from the ancestor to recover both half-paths.
+     */
+    private SapResult toResult(Scratch sc) {
+        if (sc.ancestor == -1) {
+            return SapResult.NONE;
+        }
+        int ancestor = sc.ancestor;
+        if (sc.rootV != -1) {
+            // the path through the root was never improved on, and may not have been searched
+            int[] pathFromV = this.dag.pathToRoot(this.digraph, sc.rootV);
+            int[] pathFromW = this.dag.pathToRoot(this.digraph, sc.rootW);
+            return new SapResult(sc.length, ancestor, pathFromV, pathFromW);
+        }
+        int[] pathFromV = new int[sc.distV[ancestor] + 1];
+        for (int x = ancestor, i = pathFromV.length - 1; i >= 0; x = sc.edgeToV[x], i--) {
+            pathFromV[i] = x;
+        }
+        int[] pathFromW = new int[sc.distW[ancestor] + 1];
+        for (int x = ancestor, i = pathFromW.length - 1; i >= 0; x = sc.edgeToW[x], i--) {
+            pathFromW[i] = x;
+        }
+        return new SapResult(sc.length, ancestor, pathFromV, pathFromW);
+    }
+
+    /**
+     * Builds an immutable result from the ancestor index, given the sources on
+     * either side closest to the shortest common ancestor x.
+     */
+    private SapResult toResult(int v, int w, int x) {
+        if (x == -1) {
+            return SapResult.NONE;
+        }
+        int[] pathFromV = this.index.pathTo(v, x);
+        int[] pathFromW = this.index.pathTo(w, x);
+        return new SapResult(pathFromV.length + pathFromW.length - 2, x, pathFromV, pathFromW);
+    }
+
+    private Scratch search(int v, int w) {
+        Scratch sc = this.scratch.get();
+        sc.reset();
+        sc.addV(v);
+        sc.addW(w);
+        this.search(sc);
+        return sc;
+    }
+
+    private Scratch search(Iterable<Integer> v, Iterable<Integer> w) {
+        Scratch sc = this.scratch.get();
+        sc.reset();
+        for (int s : v) {
+            sc.addV(s);
+        }
+        for (int s : w) {
+            sc.addW(s);
+        }
+        this.search(sc);
+        return sc;
+    }
+
+    /**
+     * @param limit - paths of this length or longer are not searched for
+     */
+    private Scratch search(int[] v, int fromV, int toV, int[] w, int fromW, int toW, int limit) {
+        Scratch sc = this.scratch.get();
+        sc.reset();
+        sc.limit = limit;
+        for (int i = fromV; i < toV; i++) {
+            sc.addV(v[i]);
+        }
+        for (int i = fromW; i < toW; i++) {
+            sc.addW(w[i]);
+        }
+        this.search(sc);
+        return sc;
+    }
+
+    /**
+     * Lockstep bidirectional BFS from the sources already queued in {@code sc}.
+     * <p>
+     * Both searches walk up the digraph one level at a time, taking turns. A
+     * common ancestor is found whenever one side reaches a vertex the other side
+     * has already reached. A side stops expanding once the next level it would
+     * discover is no shorter than the best ancestral path found so far, since any
+     * ancestor it finds from then on is at least that far from its own sources.
+     * Only the vertices reachable within that bound are ever visited.
+     * <p>
+     * On a rooted DAG the best path starts out as the one through the root, of
+     * length depth(v) + depth(w) for the sources closest to the root, so the
+     * search is bounded from its first level on.
+     * <p>
+     * Stores the length and ancestor in {@code sc}; both are -1 if no path exists.
+     * 
+     * @param sc - scratch buffers with both source sets queued
+     */
+    private void search(Scratch sc) {
+        SapMetrics metrics = this.metrics;
+        if (metrics == null) {
+            this.traverse(sc);
+            return;
+        }
+        long start = System.nanoTime();
+        this.traverse(sc);
+        long nanos = System.nanoTime() - start;
+
+        // every dequeued vertex had all of its edges scanned
+        final int[] offsets = this.digraph.offsets;
+        int edges = 0;
+        for (int i = 0; i < sc.headV; i++) {
+            edges += offsets[sc.queueV[i] + 1] - offsets[sc.queueV[i]];
+        }
+        for (int i = 0; i < sc.headW; i++) {
+            edges += offsets[sc.queueW[i] + 1] - offsets[sc.queueW[i]];
+        }
+        metrics.record(nanos, sc.tailV + sc.tailW, edges, sc.depth);
+    }
+
+    /**
+     * Runs the search described by {@link #search(Scratch)}, also storing how far
+     * it got in {@code sc}. {@link OffHeapSAP} repeats this traversal over
+     * buffers, so a change here must be made there too.
+     */
+    private void traverse(Scratch sc) {
+        final int genV = sc.generationV, genW = sc.generationW;
+        final int[] stampV = sc.stampV, stampW = sc.stampW;
+        final int[] distV = sc.distV, distW = sc.distW;
+        final int[] edgeToV = sc.edgeToV, edgeToW = sc.edgeToW;
+        final int[] queueV = sc.queueV, queueW = sc.queueW;
+        final int[] offsets = this.digraph.offsets, targets = this.digraph.targets;
+        int headV = 0, tailV = sc.tailV, headW = 0, tailW = sc.tailW;
+
+        int best = Integer.MAX_VALUE;
+        int ancestor = -1;
+        sc.rootV = -1;
+
+        for (int i = 0; i < tailW; i++) {
+            if (stampV[queueW[i]] == genV) {
+                // a vertex in both sets is its own shortest common ancestor
+                sc.length = 0;
+                sc.ancestor = queueW[i];
+                sc.headV = 0;
+                sc.headW = 0;
+                sc.depth = 0;
+                return;
+            }
+        }
+
+        int rootV = -1, rootW = -1;
+        if (this.dag != null) {
+            rootV = queueV[0];
+            for (int i = 1; i < tailV; i++) {
+                if (this.dag.depth(queueV[i]) < this.dag.depth(rootV)) {
+                    rootV = queueV[i];
+                }
+            }
+            rootW = queueW[0];
+            for (int i = 1; i < tailW; i++) {
+                if (this.dag.depth(queueW[i]) < this.dag.depth(rootW)) {
+                    rootW = queueW[i];
+                }
+            }
+            best = this.dag.depth(rootV) + this.dag.depth(rootW);
+        }
+        if (sc.limit <= best) {
+            // the path through the root is out of bounds too, so it cannot be the answer
+            best = sc.limit;
+            rootV = -1;
+        }
+
+        int levelV = 0, levelW = 0; // distance of the vertices at the head of each queue
+        boolean turnV = true;
+        while (true) {
+            boolean canV = headV < tailV && levelV + 1 < best;
+            boolean canW = headW < tailW && levelW + 1 < best;
+            if (!canV && !canW) {
+                break;
+            }
+
+            if (canV && (turnV || !canW)) {
+                // expand every vertex on the current level of v's search
+                while (headV < tailV && distV[queueV[headV]] == levelV) {
+                    int x = queueV[headV++];
+                    for (int e = offsets[x]; e < offsets[x + 1]; e++) {
+                        int y = targets[e];
+                        if (stampV[y] == genV) {
+                            continue;
+                        }
+                        stampV[y] = genV;
+                        distV[y] = levelV + 1;
+                        edgeToV[y] = x;
+                        queueV[tailV++] = y;
+                        if (stampW[y] == genW && distV[y] + distW[y] < best) {
+                            best = distV[y] + distW[y];
+                            ancestor = y;
+                        }
+                    }
+                }
+                levelV++;
+            } else {
+                // expand every vertex on the current level of w's search
+                while (headW < tailW && distW[queueW[headW]] == levelW) {
+                    int x = queueW[headW++];
+                    for (int e = offsets[x]; e < offsets[x + 1]; e++) {
+                        int y = targets[e];
+                        if (stampW[y] == genW) {
+                            continue;
+                        }
+                        stampW[y] = genW;
+                        distW[y] = levelW + 1;
+                        edgeToW[y] = x;
+                        queueW[tailW++] = y;
+                        if (stampV[y] == genV && distV[y] + distW[y] < best) {
+                            best = distV[y] + distW[y];
+                            ancestor = y;
+                        }
+                    }
+                }
+                levelW++;
+            }
+            turnV = !turnV;
+        }
+
+        if (ancestor == -1 && rootV != -1) {
+            // nothing beat the path through the root
+            ancestor = this.dag.root();
+            sc.rootV = rootV;
+            sc.rootW = rootW;
+        }
+        sc.length = (ancestor == -1) ? -1 : best;
+        sc.ancestor = ancestor;
+        sc.headV = headV;
+        sc.headW = headW;
+        sc.tailV = tailV;
+        sc.tailW = tailW;
+        sc.depth = Math.max(levelV, levelW);
+    }
+
+    private void validateVertex(int v) {
+        if (v < 0 || v >= this.vertices) {
+            throw new IllegalArgumentException(
+                    String.format("vertex %d is not between 0 and %d", v, this.vertices - 1));
+        }
+    }
+
+    private void validatePairs(int[] v, int[] w) {
+        if (v == null || w == null) {
+            throw new IllegalArgumentException("argument is null!");
+        }
+        if (v.length != w.length) {
+            throw new IllegalArgumentException("v and w must have the same length!");
+        }
+        for (int i = 0; i < v.length; i++) {
+            this.validateVertex(v[i]);
+            this.validateVertex(w[i]);
+        }
+    }
+
+    /**
+     * Checks two vertex sets, for callers about to use the range overloads.
+     */
+    void validateVertices(int[] v, int[] w) {
+        if (v == null || w == null) {
+            throw new IllegalArgumentException("argument is null!");
+        }
+        if (v.length == 0 || w.length == 0) {
+            throw new IllegalArgumentException("zero vertices");
+        }
+        for (int val : v) {
+            this.validateVertex(val);
+        }
+        for (int val : w) {
+            this.validateVertex(val);
+        }
     }
 
     private void validateVertices(Iterable<Integer> v, Iterable<Integer> w) {
         if (v == null || w == null) {
             throw new IllegalArgumentException("argument is null!");
         }
+        this.validateVertices(v);
+        this.validateVertices(w);
+    }
+
+    /**
+     * Checks every vertex of a non-null Iterable.
+     * 
+     * @return number of vertices in the Iterable
+     */
+    private int validateVertices(Iterable<Integer> v) {
+        int count = 0;
         for (Integer val : v) {
             if (val == null) {
                 throw new IllegalArgumentException("value inside iterable is null!");
             }
+            this.validateVertex(val);
+            count++;
         }
-        for (Integer val : w) {
-            if (val == null) {
-                throw new IllegalArgumentException("value inside iterable is null!");
-            }
+        if (count == 0) {
+            throw new IllegalArgumentException("zero vertices");
         }
+        return count;
     }
 
     /**
@@ -163,9 +1104,8 @@ public class SAP {
         while (!StdIn.isEmpty()) {
             int v = StdIn.readInt();
             int w = StdIn.readInt();
-            int length = sap.length(v, w);
-            int ancestor = sap.ancestor(v, w);
-            StdOut.printf("length = %d, ancestor = %d\n", length, ancestor);
+            SapResult result = sap.query(v, w);
+            StdOut.printf("length = %d, ancestor = %d\n", result.length(), result.ancestor());
         }
     }
 }
@@ -0,0 +1,328 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.princeton.cs.algs4.StdOut;
+
+/**
+ * SapBenchmark class.
+ * <p>
+ * Self-contained benchmark harness for {@link SAP}, {@link WordNet} and
+ * {@link Outcast}, run from the command line like the other clients:
+ * 
+ * <pre>
+ * java SapBenchmark [-synsets file -hypernyms file] [-sizes 10000,100000,...]
+ *                   [-threads 8] [-seconds 2]
+ * </pre>
+ * 
+ * It covers:
+ * <ul>
+ * <li>WordNet construction, on the given files and on {@link SyntheticDag}
+ * digraphs of each size
+ * <li>SAP latency on near (sibling), far (deep, random) and unreachable pairs,
+ * with the BFS and with the {@link AncestorIndex}
+ * <li>WordNet distance() and sap() latency, and Outcast on lists of 5 to 100
+ * nouns, if WordNet files are given
+ * <li>query throughput with 1 to N threads sharing one instance
+ * </ul>
+ * Every case warms up for the same time it is measured, so the JIT has compiled
+ * the hot paths before any sample is taken. Results of each operation are
+ * folded into a volatile field so that no call can be eliminated.
+ */
+public final class SapBenchmark {
+    private static final int PAIRS = 4096;
+    private static final int MAX_SAMPLES = 1 << 20;
+
+    /**
+     * Largest synthetic digraph to also build an {@link AncestorIndex} for; its
+     * labels take about 200 bytes per vertex.
+     */
+    private static final int LABEL_INDEX_LIMIT = 1_000_000;
+
+    /**
+     * Folded results of every operation, so that none is dead code.
+     */
+    private static volatile long blackhole;
+
+    private final long nanos;
+    private final int threads;
+
+    private SapBenchmark(double seconds, int threads) {
+        this.nanos = (long) (seconds * 1e9);
+        this.threads = threads;
+    }
+
+    /**
+     * One benchmarked operation; {@code i} selects the input.
+     */
+    private interface Op {
+        long run(int i);
+    }
+
+    /**
+     * Runs op repeatedly for the warm-up time, then times each call for the
+     * measurement time and prints the latency distribution.
+     */
+    private void latency(String name, Op op) {
+        long consumed = 0;
+        int i = 0;
+        for (long end = System.nanoTime() + this.nanos; System.nanoTime() < end;) {
+            consumed += op.run(i++);
+        }
+
+        long[] samples = new long[1024];
+        int count = 0;
+        for (long end = System.nanoTime() + this.nanos; System.nanoTime() < end && count < MAX_SAMPLES;) {
+            long start = System.nanoTime();
+            consumed += op.run(i++);
+            long elapsed = System.nanoTime() - start;
+            if (count == samples.length) {
+                samples = Arrays.copyOf(samples, 2 * count);
+            }
+            samples[count++] = elapsed;
+        }
+        blackhole += consumed;
+
+        Arrays.sort(samples, 0, count);
+        long total = 0;
+        for (int k = 0; k < count; k++) {
+            total += samples[k];
+        }
+        StdOut.printf("%-40s %10d ops %10.2f us/op  p50 %9.2f  p99 %9.2f  max %10.2f\n", name, count,
+                total / 1e3 / count, samples[count / 2] / 1e3, samples[(int) (count * 0.99)] / 1e3,
+                samples[count - 1] / 1e3);
+    }
+
+    /**
+     * Runs op on 1, 2, 4, ... up to N threads at once and prints the total number
+     * of operations per second at each thread count.
+     */
+    private void throughput(String name, Op op) {
+        for (int t = 1; t <= this.threads; t = (t == this.threads) ? t + 1 : Math.min(2 * t, this.threads)) {
+            final int count = t;
+            LongAdder ops = new LongAdder();
+            Thread[] workers = new Thread[count];
+            for (int k = 0; k < count; k++) {
+                final int offset = k * PAIRS / count;
+                workers[k] = new Thread(() -> {
+                    long consumed = 0;
+                    int i = offset;
+                    for (long end = System.nanoTime() + this.nanos; System.nanoTime() < end;) {
+                        consumed += op.run(i++);
+                    }
+                    blackhole += consumed;
+                    long warm = i;
+                    for (long end = System.nanoTime() + this.nanos; System.nanoTime() < end;) {
+                        consumed += op.run(i++);
+                    }
+                    ops.add(i - warm);
+                    blackhole += consumed;
+                });
+                workers[k].start();
+            }
+            for (Thread worker : workers) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            StdOut.printf("%-40s %3d threads %12.0f ops/s\n", name, count, ops.sum() / (this.nanos / 1e9));
+        }
+    }
+
+    /**
+     * Times {@code runs} constructions after one warm-up run.
+     */
+    private static void construction(String name, int runs, Op op) {
+        long consumed = op.run(0);
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < runs; r++) {
+            long start = System.nanoTime();
+            consumed += op.run(r);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        blackhole += consumed;
+        StdOut.printf("%-40s best of %d: %10.1f ms\n", name, runs, best / 1e6);
+    }
+
+    /**
+     * Pairs of siblings, i.e. two hyponyms of the same synset.
+     */
+    private static int[][] nearPairs(CsrDigraph G, SplittableRandom random) {
+        CsrDigraph hyponyms = G.reverse();
+        int[][] pairs = new int[2][PAIRS];
+        for (int i = 0; i < PAIRS;) {
+            int v = random.nextInt(G.V());
+            if (G.outdegree(v) == 0) {
+                continue;
+            }
+            int parent = G.adj(v, 0);
+            pairs[0][i] = v;
+            pairs[1][i] = hyponyms.adj(parent, random.nextInt(hyponyms.outdegree(parent)));
+            i++;
+        }
+        return pairs;
+    }
+
+    /**
+     * Pairs of random vertices from the deepest tenth of the digraph.
+     */
+    private static int[][] farPairs(CsrDigraph G, SplittableRandom random) {
+        RootedDag dag = new RootedDag(G);
+        int[] deep = new int[G.V()];
+        int count = 0;
+        int threshold = (int) Math.ceil(0.9 * dag.height());
+        for (int v = 0; v < G.V(); v++) {
+            if (dag.depth(v) >= threshold) {
+                deep[count++] = v;
+            }
+        }
+        int[][] pairs = new int[2][PAIRS];
+        for (int i = 0; i < PAIRS; i++) {
+            pairs[0][i] = deep[random.nextInt(count)];
+            pairs[1][i] = deep[random.nextInt(count)];
+        }
+        return pairs;
+    }
+
+    /**
+     * Pairs without a common ancestor, sampled from a digraph with two roots.
+     * Gives up after {@code 100 * PAIRS} tries, so fewer than PAIRS pairs may be
+     * returned.
+     */
+    private static int[][] unreachablePairs(SAP sap, int V, SplittableRandom random) {
+        int[][] pairs = new int[2][PAIRS];
+        int i = 0;
+        for (int tries = 0; i < PAIRS && tries < 100 * PAIRS; tries++) {
+            int v = random.nextInt(V), w = random.nextInt(V);
+            if (sap.length(v, w) == -1) {
+                pairs[0][i] = v;
+                pairs[1][i] = w;
+                i++;
+            }
+        }
+        return new int[][] { Arrays.copyOf(pairs[0], i), Arrays.copyOf(pairs[1], i) };
+    }
+
+    private void benchmarkSap(int size) {
+        StdOut.printf("\n== synthetic digraph, %d vertices ==\n", size);
+        SplittableRandom random = new SplittableRandom(size);
+        CsrDigraph digraph = new SyntheticDag(size, 1, SyntheticDag.WORDNET_EXTRA_EDGES, size).digraph();
+        SAP sap = new SAP(digraph, false, new RootedDag(digraph));
+        int[][] near = nearPairs(digraph, random);
+        int[][] far = farPairs(digraph, random);
+        this.latency("SAP.length near", i -> sap.length(near[0][i % PAIRS], near[1][i % PAIRS]));
+        this.latency("SAP.length far", i -> sap.length(far[0][i % PAIRS], far[1][i % PAIRS]));
+        if (size <= LABEL_INDEX_LIMIT) {
+            // the label index answers the same queries by merging precomputed labels
+            SAP indexed = new SAP(digraph, true, null);
+            this.latency("SAP.length far, label index", i -> indexed.length(far[0][i % PAIRS], far[1][i % PAIRS]));
+        }
+
+        CsrDigraph forest = new SyntheticDag(size, 2, SyntheticDag.WORDNET_EXTRA_EDGES, size).digraph();
+        SAP unbounded = new SAP(forest, false);
+        int[][] unreachable = unreachablePairs(unbounded, size, random);
+        final int found = unreachable[0].length;
+        if (found == 0) {
+            StdOut.println("SAP.length unreachable: no unreachable pairs found, skipped");
+        } else {
+            this.latency("SAP.length unreachable", i -> unbounded.length(unreachable[0][i % found],
+                    unreachable[1][i % found]));
+        }
+        this.throughput("SAP.length far", i -> sap.length(far[0][i % PAIRS], far[1][i % PAIRS]));
+
+        try {
+            File synsets = File.createTempFile("synsets", ".txt");
+            File hypernyms = File.createTempFile("hypernyms", ".txt");
+            synsets.deleteOnExit();
+            hypernyms.deleteOnExit();
+            new SyntheticDag(size, 1, SyntheticDag.WORDNET_EXTRA_EDGES, size)
+                    .write(synsets.getPath(), hypernyms.getPath());
+            construction("WordNet construction", 3,
+                    i -> new WordNet(synsets.getPath(), hypernyms.getPath()).synsetCount());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void benchmarkWordNet(String synsets, String hypernyms) {
+        StdOut.printf("\n== WordNet %s, %s ==\n", synsets, hypernyms);
+        construction("WordNet construction", 5, i -> new WordNet(synsets, hypernyms).synsetCount());
+        WordNet wordnet = new WordNet(synsets, hypernyms);
+        List<String> nouns = new ArrayList<>();
+        for (String noun : wordnet.nouns()) {
+            nouns.add(noun);
+        }
+
+        SplittableRandom random = new SplittableRandom(42);
+        String[][] pairs = new String[PAIRS][];
+        for (int i = 0; i < PAIRS; i++) {
+            pairs[i] = new String[] { nouns.get(random.nextInt(nouns.size())),
+                    nouns.get(random.nextInt(nouns.size())) };
+        }
+        this.latency("WordNet.distance", i -> wordnet.distance(pairs[i % PAIRS][0], pairs[i % PAIRS][1]));
+        this.latency("WordNet.sap", i -> wordnet.sap(pairs[i % PAIRS][0], pairs[i % PAIRS][1]).length());
+
+        Outcast outcast = new Outcast(wordnet);
+        for (int n : new int[] { 5, 10, 20, 50, 100 }) {
+            String[][] lists = new String[64][n];
+            for (String[] list : lists) {
+                for (int k = 0; k < n; k++) {
+                    list[k] = nouns.get(random.nextInt(nouns.size()));
+                }
+            }
+            this.latency("Outcast.outcast, " + n + " nouns", i -> outcast.outcast(lists[i % lists.length]).length());
+        }
+        this.throughput("WordNet.distance", i -> wordnet.distance(pairs[i % PAIRS][0], pairs[i % PAIRS][1]));
+    }
+
+    /**
+     * Runs the benchmarks selected by the command-line options.
+     * 
+     * @param args
+     */
+    public static void main(String[] args) {
+        String synsets = null, hypernyms = null;
+        int[] sizes = { 10_000, 100_000, 1_000_000 };
+        int threads = Runtime.getRuntime().availableProcessors();
+        double seconds = 2;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "-synsets":
+                    synsets = args[i + 1];
+                    break;
+                case "-hypernyms":
+                    hypernyms = args[i + 1];
+                    break;
+                case "-sizes":
+                    sizes = Arrays.stream(args[i + 1].split(",")).mapToInt(Integer::parseInt).toArray();
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-seconds":
+                    seconds = Double.parseDouble(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+
+        SapBenchmark benchmark = new SapBenchmark(seconds, threads);
+        if (synsets != null && hypernyms != null) {
+            benchmark.benchmarkWordNet(synsets, hypernyms);
+        }
+        for (int size : sizes) {
+            benchmark.benchmarkSap(size);
+        }
+        // print the sum of every result, so the JIT cannot drop the measured calls
+        StdOut.println("done, checksum " + blackhole);
+    }
+}
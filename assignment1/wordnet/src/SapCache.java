@@ -0,0 +1,300 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SapCache class.
+ * <p>
+ * A bounded, thread-safe LRU cache of shortest ancestral path results, keyed by
+ * the unordered pair of synset id sets being compared. A cache belongs to one
+ * immutable {@link SAP}, so its results stay valid for the lifetime of the
+ * cache and entries are only ever dropped by eviction. When the digraph grows,
+ * {@link #retain} carries the still valid entries over to a new cache.
+ * <p>
+ * The cache is split into independently locked segments, each an access-ordered
+ * {@link LinkedHashMap}, so that concurrent readers of different keys rarely
+ * contend. Eviction is LRU within a segment.
+ */
+public class SapCache {
+    private static final int MAX_SEGMENTS = 16;
+
+    private final Segment[] segments;
+    private final int capacity;
+
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+
+    /**
+     * Creates an empty cache holding at most {@code capacity} results.
+     * 
+     * @param capacity - maximum number of cached results; must be positive
+     */
+    public SapCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("cache capacity must be positive!");
+        }
+        this.capacity = capacity;
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+        int n = Math.min(MAX_SEGMENTS, capacity);
+        this.segments = new Segment[n];
+        for (int i = 0; i < n; i++) {
+            // spread the capacity so the segments add up to exactly `capacity`
+            this.segments[i] = new Segment(capacity / n + (i < capacity % n ? 1 : 0));
+        }
+    }
+
+    /**
+     * Creates an empty cache with the same capacity and segments as
+     * {@code previous}, continuing its counters.
+     */
+    private SapCache(SapCache previous) {
+        this.capacity = previous.capacity;
+        this.hits = previous.hits;
+        this.misses = previous.misses;
+        this.evictions = previous.evictions;
+        this.segments = new Segment[previous.segments.length];
+        for (int i = 0; i < this.segments.length; i++) {
+            this.segments[i] = new Segment(previous.segments[i].limit);
+        }
+    }
+
+    /**
+     * Copies this cache for a grown digraph, dropping only the results whose
+     * synset ids include a stale vertex, i.e. one whose ancestors changed.
+     * Surviving entries keep their segment and LRU order, and the counters are
+     * shared with this cache.
+     * 
+     * @param stale - stale[v] is true if vertex v has new ancestors
+     * @return a new cache holding every still valid result of this one
+     */
+    SapCache retain(boolean[] stale) {
+        SapCache copy = new SapCache(this);
+        for (int i = 0; i < this.segments.length; i++) {
+            Segment segment = this.segments[i];
+            synchronized (segment) {
+                // iteration runs from least to most recently used, so order is kept
+                for (Map.Entry<Key, SapResult> entry : segment.entrySet()) {
+                    Key key = entry.getKey();
+                    if (!isStale(key.a, stale) && !isStale(key.b, stale)) {
+                        copy.segments[i].put(key, entry.getValue());
+                    }
+                }
+            }
+        }
+        return copy;
+    }
+
+    private static boolean isStale(int[] ids, boolean[] stale) {
+        for (int id : ids) {
+            if (stale[id]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * One independently locked LRU map.
+     */
+    private final class Segment extends LinkedHashMap<Key, SapResult> {
+        private static final long serialVersionUID = 1L;
+        private final int limit;
+
+        private Segment(int limit) {
+            super(16, 0.75f, true);
+            this.limit = limit;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, SapResult> eldest) {
+            if (this.size() > this.limit) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Unordered pair of sorted synset id sets; {@code a} is never greater than
+     * {@code b}, so (v, w) and (w, v) map to the same key.
+     */
+    private static final class Key {
+        private final int[] a;
+        private final int[] b;
+        private final int hash;
+
+        private Key(int[] a, int[] b) {
+            this.a = a;
+            this.b = b;
+            this.hash = 31 * Arrays.hashCode(a) + Arrays.hashCode(b);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return this.hash == other.hash && Arrays.equals(this.a, other.a) && Arrays.equals(this.b, other.b);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+
+    /**
+     * Returns the cached result for the pair (v, w), computing it with
+     * {@code sap} on a miss.
+     * 
+     * @param sap - SAP used to compute a missing result
+     * @param v   - synset ids of the first noun
+     * @param w   - synset ids of the second noun
+     * @return the shortest ancestral path between v and w, oriented from v to w
+     */
+    public SapResult get(SAP sap, int[] v, int[] w) {
+        sap.validateVertices(v, w);
+        return this.get(sap, v, 0, v.length, w, 0, w.length);
+    }
+
+    /**
+     * Same as {@link #get(SAP, int[], int[])} for the trusted source ranges
+     * {@code v[fromV .. toV)} and {@code w[fromW .. toW)}, as taken by the range
+     * overloads of SAP.
+     */
+    SapResult get(SAP sap, int[] v, int fromV, int toV, int[] w, int fromW, int toW) {
+        int[] sortedV = Arrays.copyOfRange(v, fromV, toV);
+        int[] sortedW = Arrays.copyOfRange(w, fromW, toW);
+        Arrays.sort(sortedV);
+        Arrays.sort(sortedW);
+        boolean swapped = Arrays.compare(sortedV, sortedW) > 0;
+        Key key = swapped ? new Key(sortedW, sortedV) : new Key(sortedV, sortedW);
+        Segment segment = this.segment(key);
+
+        SapResult result;
+        synchronized (segment) {
+            result = segment.get(key);
+        }
+        if (result != null) {
+            this.hits.increment();
+        } else {
+            this.misses.increment();
+            // compute outside the lock; a racing thread may store the same result
+            result = swapped ? sap.query(w, fromW, toW, v, fromV, toV) : sap.query(v, fromV, toV, w, fromW, toW);
+            synchronized (segment) {
+                segment.put(key, result);
+            }
+        }
+        return swapped ? result.reversed() : result;
+    }
+
+    /**
+     * Returns the cached length for the pair (v, w) without computing anything
+     * on a miss, for callers that can answer more cheaply than a full query.
+     * Only hits are counted.
+     * 
+     * @param v     - synset ids of the first noun
+     * @param fromV - start of the first noun's ids in v
+     * @param toV   - end of the first noun's ids in v
+     * @param w     - synset ids of the second noun
+     * @param fromW - start of the second noun's ids in w
+     * @param toW   - end of the second noun's ids in w
+     * @return the cached length, -1 included if there is no path; -2 if the pair
+     *         is not cached
+     */
+    int peekLength(int[] v, int fromV, int toV, int[] w, int fromW, int toW) {
+        int[] sortedV = Arrays.copyOfRange(v, fromV, toV);
+        int[] sortedW = Arrays.copyOfRange(w, fromW, toW);
+        Arrays.sort(sortedV);
+        Arrays.sort(sortedW);
+        Key key = (Arrays.compare(sortedV, sortedW) > 0) ? new Key(sortedW, sortedV) : new Key(sortedV, sortedW);
+        Segment segment = this.segment(key);
+        SapResult result;
+        synchronized (segment) {
+            result = segment.get(key);
+        }
+        if (result == null) {
+            return -2;
+        }
+        this.hits.increment();
+        return result.length();
+    }
+
+    private Segment segment(Key key) {
+        return this.segments[((key.hash ^ (key.hash >>> 16)) & 0x7fffffff) % this.segments.length];
+    }
+
+    /**
+     * Returns a snapshot of the hit, miss and eviction counters.
+     * 
+     * @return current cache statistics
+     */
+    public Stats stats() {
+        int size = 0;
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return new Stats(this.hits.sum(), this.misses.sum(), this.evictions.sum(), size, this.capacity);
+    }
+
+    /**
+     * Immutable snapshot of cache counters.
+     */
+    public static final class Stats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final int size;
+        private final int capacity;
+
+        Stats(long hits, long misses, long evictions, int size, int capacity) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.size = size;
+            this.capacity = capacity;
+        }
+
+        public long hits() {
+            return this.hits;
+        }
+
+        public long misses() {
+            return this.misses;
+        }
+
+        public long evictions() {
+            return this.evictions;
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        public int capacity() {
+            return this.capacity;
+        }
+
+        /**
+         * @return fraction of lookups served from the cache; 0 if there were none
+         */
+        public double hitRate() {
+            long total = this.hits + this.misses;
+            return (total == 0) ? 0.0 : (double) this.hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits = %d, misses = %d, evictions = %d, size = %d/%d, hit rate = %.3f",
+                    this.hits, this.misses, this.evictions, this.size, this.capacity, this.hitRate());
+        }
+    }
+}
@@ -0,0 +1,208 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * SapMetrics class.
+ * <p>
+ * Per-query statistics of the BFS traversals run by {@link SAP}: vertices
+ * visited, edges relaxed, BFS depth reached and wall time, each kept in a
+ * {@link LogHistogram}. Attach an instance with {@link SAP#metrics(SapMetrics)}
+ * or {@link WordNet.Options#metrics(SapMetrics)}, read it with
+ * {@link #snapshot()}, or publish it over JMX with {@link #register(String)}.
+ * <p>
+ * With no metrics attached the only cost on the query path is one null check.
+ * Queries answered from the ancestor index or the result cache run no BFS and
+ * are not recorded, nor are batches that share one BFS tree across pairs.
+ */
+public final class SapMetrics implements SapMetricsMBean {
+    private final LogHistogram nanos = new LogHistogram();
+    private final LogHistogram visited = new LogHistogram();
+    private final LogHistogram edges = new LogHistogram();
+    private final LogHistogram depth = new LogHistogram();
+
+    /**
+     * Records one traversal.
+     * 
+     * @param nanos   - wall time of the traversal
+     * @param visited - vertices reached from either side
+     * @param edges   - edges scanned out of expanded vertices
+     * @param depth   - deepest BFS level reached by either side
+     */
+    void record(long nanos, int visited, int edges, int depth) {
+        this.nanos.record(nanos);
+        this.visited.record(visited);
+        this.edges.record(edges);
+        this.depth.record(depth);
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server.
+     * 
+     * @param name - JMX object name, e.g. {@code "wordnet:type=SapMetrics"}
+     * @return the registered object name
+     * @throws IllegalArgumentException if the name is malformed or taken
+     */
+    public ObjectName register(String name) {
+        try {
+            ObjectName objectName = new ObjectName(name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalArgumentException("could not register metrics as " + name, e);
+        }
+    }
+
+    /**
+     * @return a copy of every histogram plus the JVM's GC counters
+     */
+    public Snapshot snapshot() {
+        long gcCount = 0, gcMillis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(0, gc.getCollectionCount());
+            gcMillis += Math.max(0, gc.getCollectionTime());
+        }
+        return new Snapshot(this.nanos.snapshot(), this.visited.snapshot(), this.edges.snapshot(),
+                this.depth.snapshot(), gcCount, gcMillis);
+    }
+
+    /**
+     * Immutable copy of the metrics.
+     */
+    public static final class Snapshot {
+        private final LogHistogram.Snapshot nanos;
+        private final LogHistogram.Snapshot visited;
+        private final LogHistogram.Snapshot edges;
+        private final LogHistogram.Snapshot depth;
+        private final long gcCount;
+        private final long gcMillis;
+
+        private Snapshot(LogHistogram.Snapshot nanos, LogHistogram.Snapshot visited, LogHistogram.Snapshot edges,
+                LogHistogram.Snapshot depth, long gcCount, long gcMillis) {
+            this.nanos = nanos;
+            this.visited = visited;
+            this.edges = edges;
+            this.depth = depth;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+        }
+
+        /**
+         * @return wall time per traversal, in nanoseconds
+         */
+        public LogHistogram.Snapshot nanos() {
+            return this.nanos;
+        }
+
+        /**
+         * @return vertices visited per traversal
+         */
+        public LogHistogram.Snapshot visited() {
+            return this.visited;
+        }
+
+        /**
+         * @return edges relaxed per traversal
+         */
+        public LogHistogram.Snapshot edges() {
+            return this.edges;
+        }
+
+        /**
+         * @return BFS depth reached per traversal
+         */
+        public LogHistogram.Snapshot depth() {
+            return this.depth;
+        }
+
+        /**
+         * @return collections run by all garbage collectors since JVM start
+         */
+        public long gcCount() {
+            return this.gcCount;
+        }
+
+        /**
+         * @return approximate time spent in all garbage collectors since JVM start
+         */
+        public long gcMillis() {
+            return this.gcMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("nanos: %s\nvisited: %s\nedges: %s\ndepth: %s\ngc: %d collections, %d ms",
+                    this.nanos, this.visited, this.edges, this.depth, this.gcCount, this.gcMillis);
+        }
+    }
+
+    @Override
+    public long getQueries() {
+        return this.nanos.snapshot().count();
+    }
+
+    @Override
+    public double getMeanNanos() {
+        return this.nanos.snapshot().mean();
+    }
+
+    @Override
+    public long getP50Nanos() {
+        return this.nanos.snapshot().percentile(50);
+    }
+
+    @Override
+    public long getP99Nanos() {
+        return this.nanos.snapshot().percentile(99);
+    }
+
+    @Override
+    public long getMaxNanos() {
+        return this.nanos.snapshot().max();
+    }
+
+    @Override
+    public double getMeanVisited() {
+        return this.visited.snapshot().mean();
+    }
+
+    @Override
+    public long getP99Visited() {
+        return this.visited.snapshot().percentile(99);
+    }
+
+    @Override
+    public double getMeanEdgesRelaxed() {
+        return this.edges.snapshot().mean();
+    }
+
+    @Override
+    public long getP99EdgesRelaxed() {
+        return this.edges.snapshot().percentile(99);
+    }
+
+    @Override
+    public long getMaxDepth() {
+        return this.depth.snapshot().max();
+    }
+
+    @Override
+    public long getGcCount() {
+        return this.snapshot().gcCount();
+    }
+
+    @Override
+    public long getGcMillis() {
+        return this.snapshot().gcMillis();
+    }
+
+    @Override
+    public void reset() {
+        this.nanos.reset();
+        this.visited.reset();
+        this.edges.reset();
+        this.depth.reset();
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * JMX management interface of {@link SapMetrics}. Times are in nanoseconds.
+ */
+public interface SapMetricsMBean {
+    long getQueries();
+
+    double getMeanNanos();
+
+    long getP50Nanos();
+
+    long getP99Nanos();
+
+    long getMaxNanos();
+
+    double getMeanVisited();
+
+    long getP99Visited();
+
+    double getMeanEdgesRelaxed();
+
+    long getP99EdgesRelaxed();
+
+    long getMaxDepth();
+
+    long getGcCount();
+
+    long getGcMillis();
+
+    /**
+     * Clears every histogram.
+     */
+    void reset();
+}
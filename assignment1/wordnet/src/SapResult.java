@@ -0,0 +1,98 @@
+import java.util.Arrays;
+
+/**
+ * SapResult class.
+ * <p>
+ * Immutable result of a single shortest ancestral path query: the length of
+ * the path, the shortest common ancestor, and the two directed half-paths from
+ * a source vertex up to that ancestor. All of it comes from one traversal, so
+ * callers that need both the length and the ancestor should ask for this
+ * instead of calling {@code length} and {@code ancestor} separately.
+ */
+public final class SapResult {
+    /**
+     * Result for two vertex sets that have no common ancestor.
+     */
+    static final SapResult NONE = new SapResult(-1, -1, new int[0], new int[0]);
+
+    private final int length;
+    private final int ancestor;
+    private final int[] pathFromV;
+    private final int[] pathFromW;
+
+    /**
+     * Creates a result; takes ownership of both path arrays.
+     * 
+     * @param length    - length of shortest ancestral path
+     * @param ancestor  - shortest common ancestor
+     * @param pathFromV - vertices from a source in v up to the ancestor
+     * @param pathFromW - vertices from a source in w up to the ancestor
+     */
+    SapResult(int length, int ancestor, int[] pathFromV, int[] pathFromW) {
+        this.length = length;
+        this.ancestor = ancestor;
+        this.pathFromV = pathFromV;
+        this.pathFromW = pathFromW;
+    }
+
+    /**
+     * Returns true if the two vertex sets have a common ancestor.
+     * 
+     * @return true if an ancestral path exists
+     */
+    public boolean hasPath() {
+        return this.ancestor != -1;
+    }
+
+    /**
+     * Length of the shortest ancestral path.
+     * 
+     * @return length of shortest ancestral path; -1 if no path exists
+     */
+    public int length() {
+        return this.length;
+    }
+
+    /**
+     * Common ancestor in the shortest ancestral path.
+     * 
+     * @return the shortest common ancestor; -1 if no path exists
+     */
+    public int ancestor() {
+        return this.ancestor;
+    }
+
+    /**
+     * Directed path from a vertex in v to the ancestor, both ends inclusive.
+     * 
+     * @return vertices on the path starting at the source; empty if no path exists
+     */
+    public int[] pathFromV() {
+        return this.pathFromV.clone();
+    }
+
+    /**
+     * Directed path from a vertex in w to the ancestor, both ends inclusive.
+     * 
+     * @return vertices on the path starting at the source; empty if no path exists
+     */
+    public int[] pathFromW() {
+        return this.pathFromW.clone();
+    }
+
+    /**
+     * Returns the same path seen from the other side, i.e. the result of the
+     * query (w, v).
+     * 
+     * @return this result with the two half-paths swapped
+     */
+    SapResult reversed() {
+        return this.hasPath() ? new SapResult(this.length, this.ancestor, this.pathFromW, this.pathFromV) : this;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("length = %d, ancestor = %d, v path = %s, w path = %s",
+                this.length, this.ancestor, Arrays.toString(this.pathFromV), Arrays.toString(this.pathFromW));
+    }
+}
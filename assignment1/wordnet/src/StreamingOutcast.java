@@ -0,0 +1,198 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * StreamingOutcast class.
+ * <p>
+ * Outcast detection over a sliding window of the last {@code w} nouns of a
+ * stream. Instead of recomputing every pairwise distance like
+ * {@link Outcast#outcast} whenever the window moves, it keeps the distance
+ * between every two nouns in the window and the sum of each noun's distances
+ * to the others:
+ * <ul>
+ * <li>adding a noun computes its distance to the others once, by merging
+ * ancestor labels, and adds it to their sums;
+ * <li>evicting the oldest noun subtracts its stored distances from the others'
+ * sums, with no distance computed at all;
+ * <li>the outcast is tracked during those same passes, so asking for it is
+ * O(1).
+ * </ul>
+ * A noun that appears several times in the window shares one ancestor label,
+ * which is only computed again once every copy has left the window. Labels are
+ * taken from the WordNet as of when the noun was added.
+ * <p>
+ * The outcast is the noun with the largest sum, the oldest one among ties, so
+ * the answer is always the same as {@code Outcast.outcast} on the window in
+ * arrival order. Instances are not thread-safe.
+ */
+public class StreamingOutcast {
+    private final WordNet wordnet;
+    private final int window;
+
+    /**
+     * Nouns of the window in a ring; slot {@code (head + i) % window} holds the
+     * i-th oldest noun.
+     */
+    private final String[] nouns;
+    private final AncestorLabel[] labels;
+    private final long[] sums;
+
+    /**
+     * distances[i][j] is the distance between the nouns in slots i and j.
+     */
+    private final int[][] distances;
+
+    /**
+     * Ancestor label of every distinct noun in the window, with its number of
+     * copies.
+     */
+    private final Map<String, Shared> shared = new HashMap<>();
+
+    private int head;
+    private int size;
+    private int outcast = -1;
+
+    private static final class Shared {
+        private final AncestorLabel label;
+        private int copies;
+
+        private Shared(AncestorLabel label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * StreamingOutcast constructor takes a WordNet object and the window size.
+     * 
+     * @param wordnet
+     * @param window  - number of most recent nouns to consider
+     */
+    public StreamingOutcast(WordNet wordnet, int window) {
+        if (wordnet == null) {
+            throw new IllegalArgumentException("wordnet is null!");
+        }
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be positive!");
+        }
+        this.wordnet = wordnet;
+        this.window = window;
+        this.nouns = new String[window];
+        this.labels = new AncestorLabel[window];
+        this.sums = new long[window];
+        this.distances = new int[window][window];
+    }
+
+    /**
+     * Adds a noun to the window, evicting the oldest noun if the window is full.
+     * Costs one label merge per other noun in the window, plus one BFS if the
+     * noun is not in the window already.
+     * 
+     * @param noun - a WordNet noun
+     * @return the evicted noun; null if the window was not full
+     * @throws IllegalArgumentException if noun is not a WordNet noun
+     */
+    public String add(String noun) {
+        // resolve the label first, so an invalid noun leaves the window unchanged
+        Shared entry = this.shared.get(noun);
+        if (entry == null) {
+            entry = new Shared(this.wordnet.label(noun));
+        }
+
+        String evicted = null;
+        if (this.size == this.window) {
+            evicted = this.evictOldest();
+        }
+        if (entry.copies++ == 0) {
+            this.shared.put(noun, entry);
+        }
+
+        final int slot = (this.head + this.size) % this.window;
+        this.nouns[slot] = noun;
+        this.labels[slot] = entry.label;
+        this.size++;
+
+        /*
+         * one pass over the window adds the new noun's distances to every sum and
+         * finds the new outcast; the new noun is the youngest, so it only wins a
+         * tie if it is alone
+         */
+        long sum = 0;
+        this.outcast = slot;
+        for (int i = 0; i < this.size - 1; i++) {
+            int other = (this.head + i) % this.window;
+            int distance = entry.label.length(this.labels[other]);
+            this.distances[slot][other] = distance;
+            this.distances[other][slot] = distance;
+            this.sums[other] += distance;
+            sum += distance;
+            if (i == 0 || this.sums[other] > this.sums[this.outcast]) {
+                this.outcast = other;
+            }
+        }
+        this.sums[slot] = sum;
+        if (this.size > 1 && sum > this.sums[this.outcast]) {
+            this.outcast = slot;
+        }
+        return evicted;
+    }
+
+    /**
+     * Removes the oldest noun and subtracts its distances from the other sums.
+     * 
+     * @return the removed noun
+     */
+    private String evictOldest() {
+        final int slot = this.head;
+        String noun = this.nouns[slot];
+        Shared entry = this.shared.get(noun);
+        if (--entry.copies == 0) {
+            this.shared.remove(noun);
+        }
+        this.nouns[slot] = null;
+        this.labels[slot] = null;
+        this.head = (this.head + 1) % this.window;
+        this.size--;
+
+        for (int i = 0; i < this.size; i++) {
+            int other = (this.head + i) % this.window;
+            this.sums[other] -= this.distances[slot][other];
+        }
+        this.outcast = -1;
+        return noun;
+    }
+
+    /**
+     * @return the noun of the window with the highest sum of distances to the
+     *         others; null if the window is empty
+     */
+    public String outcast() {
+        return (this.outcast == -1) ? null : this.nouns[this.outcast];
+    }
+
+    /**
+     * @return number of nouns in the window, at most {@link #window()}
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the largest number of nouns the window holds
+     */
+    public int window() {
+        return this.window;
+    }
+
+    /**
+     * @return the nouns of the window, oldest first
+     */
+    public List<String> nouns() {
+        List<String> list = new ArrayList<>(this.size);
+        for (int i = 0; i < this.size; i++) {
+            list.add(this.nouns[(this.head + i) % this.window]);
+        }
+        return list;
+    }
+}
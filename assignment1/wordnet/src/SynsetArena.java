@@ -0,0 +1,134 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * SynsetArena class.
+ * <p>
+ * Synset strings and glosses of every synset id, kept as UTF-8 bytes in one
+ * buffer outside the heap and decoded only when asked for. When WordNet is
+ * built from a synsets file the buffer is a direct copy of the file that the
+ * arena owns, and when it is loaded from a snapshot it is a slice of the mapped
+ * snapshot. The heap holds just the index: four ints per synset, giving the
+ * byte ranges of its synset string and its gloss.
+ * <p>
+ * Synsets added after construction are kept on the heap as Strings, since the
+ * shared buffer is read-only.
+ */
+final class SynsetArena {
+    /**
+     * Read-only text of the synsets in {@code bounds}.
+     */
+    private final ByteBuffer bytes;
+
+    /**
+     * The synset string of id is {@code bytes[bounds[4 id] .. bounds[4 id + 1])},
+     * and its gloss {@code bytes[bounds[4 id + 2] .. bounds[4 id + 3])}.
+     */
+    private final int[] bounds;
+
+    /**
+     * Synsets and glosses of ids from {@code bounds.length / 4} on.
+     */
+    private final String[] addedSynsets;
+    private final String[] addedGlosses;
+
+    /**
+     * @param bytes  - text of the synsets, shared rather than copied
+     * @param bounds - four byte offsets per synset id
+     * @throws IllegalArgumentException if a range is reversed or outside the
+     *                                  text, e.g. in a corrupt snapshot
+     */
+    SynsetArena(ByteBuffer bytes, int[] bounds) {
+        this(bytes, bounds, new String[0], new String[0]);
+    }
+
+    private SynsetArena(ByteBuffer bytes, int[] bounds, String[] addedSynsets, String[] addedGlosses) {
+        if (bounds.length % 4 != 0) {
+            throw new IllegalArgumentException("synset text bounds must come in fours!");
+        }
+        for (int i = 0; i < bounds.length; i += 2) {
+            int from = bounds[i], to = bounds[i + 1];
+            if (from < 0 || from > to || to > bytes.limit()) {
+                throw new IllegalArgumentException("synset text bounds are outside the arena!");
+            }
+        }
+        this.bytes = bytes.asReadOnlyBuffer();
+        this.bounds = bounds;
+        this.addedSynsets = addedSynsets;
+        this.addedGlosses = addedGlosses;
+    }
+
+    /**
+     * @return number of synsets
+     */
+    int size() {
+        return this.bounds.length / 4 + this.addedSynsets.length;
+    }
+
+    /**
+     * @param id - a synset id
+     * @return the space-separated nouns of the synset
+     */
+    String synset(int id) {
+        return this.text(id, 0);
+    }
+
+    /**
+     * @param id - a synset id
+     * @return the gloss of the synset; empty if it has none
+     */
+    String gloss(int id) {
+        return this.text(id, 2);
+    }
+
+    private String text(int id, int field) {
+        final int base = this.bounds.length / 4;
+        if (id >= base) {
+            return (field == 0) ? this.addedSynsets[id - base] : this.addedGlosses[id - base];
+        }
+        int from = this.bounds[4 * id + field], to = this.bounds[4 * id + field + 1];
+        byte[] text = new byte[to - from];
+        this.bytes.get(from, text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Copy of this arena with one more synset, which gets the next id.
+     * 
+     * @param synset - space-separated nouns
+     * @param gloss  - its gloss; may be empty
+     * @return a new SynsetArena sharing this one's buffer
+     */
+    SynsetArena plus(String synset, String gloss) {
+        String[] synsets = Arrays.copyOf(this.addedSynsets, this.addedSynsets.length + 1);
+        String[] glosses = Arrays.copyOf(this.addedGlosses, this.addedGlosses.length + 1);
+        synsets[synsets.length - 1] = synset;
+        glosses[glosses.length - 1] = gloss;
+        return new SynsetArena(this.bytes, this.bounds, synsets, glosses);
+    }
+
+    // raw contents, read by WordNetSnapshot
+    ByteBuffer textBuffer() {
+        return this.bytes.duplicate().clear();
+    }
+
+    int[] boundArray() {
+        return this.bounds;
+    }
+
+    String[] addedSynsetArray() {
+        return this.addedSynsets;
+    }
+
+    String[] addedGlossArray() {
+        return this.addedGlosses;
+    }
+
+    /**
+     * @return bytes of synset text held outside the heap
+     */
+    long offHeapBytes() {
+        return this.bytes.isDirect() ? this.bytes.capacity() : 0;
+    }
+}
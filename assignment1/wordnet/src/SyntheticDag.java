@@ -0,0 +1,150 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import edu.princeton.cs.algs4.StdOut;
+
+/**
+ * SyntheticDag class.
+ * <p>
+ * Generates WordNet-like hypernym digraphs of any size for benchmarks. Vertices
+ * {@code 0 .. roots - 1} are roots; every other vertex v takes a hypernym drawn
+ * uniformly from the vertices before it, and with probability
+ * {@code extraEdges} a second, distinct one. As in a random recursive tree the
+ * average depth grows like ln V, about 16 at 10^7 vertices, close to the depth
+ * of WordNet nouns, and about 2% of WordNet synsets have more than one
+ * hypernym.
+ * <p>
+ * With a single root the result is a rooted DAG that {@link WordNet} accepts;
+ * with several roots some pairs have no common ancestor.
+ */
+public final class SyntheticDag {
+    /**
+     * Share of WordNet synsets with more than one hypernym.
+     */
+    public static final double WORDNET_EXTRA_EDGES = 0.02;
+
+    private final int vertices;
+    private final int roots;
+    private final double extraEdges;
+    private final long seed;
+
+    /**
+     * @param vertices   - number of vertices
+     * @param roots      - number of vertices without a hypernym; at least 1
+     * @param extraEdges - probability that a vertex has a second hypernym
+     * @param seed       - random seed; equal seeds give equal digraphs
+     */
+    public SyntheticDag(int vertices, int roots, double extraEdges, long seed) {
+        if (vertices < 1 || roots < 1 || roots > vertices) {
+            throw new IllegalArgumentException("need 1 <= roots <= vertices!");
+        }
+        if (extraEdges < 0 || extraEdges > 1) {
+            throw new IllegalArgumentException("extraEdges must be between 0 and 1!");
+        }
+        this.vertices = vertices;
+        this.roots = roots;
+        this.extraEdges = extraEdges;
+        this.seed = seed;
+    }
+
+    /**
+     * Generates the edges in order of their tail vertex, calling {@code sink}
+     * for each.
+     */
+    private interface EdgeSink {
+        void accept(int v, int w) throws IOException;
+    }
+
+    private void edges(EdgeSink sink) throws IOException {
+        SplittableRandom random = new SplittableRandom(this.seed);
+        for (int v = this.roots; v < this.vertices; v++) {
+            int w = random.nextInt(v);
+            sink.accept(v, w);
+            if (v > 1 && random.nextDouble() < this.extraEdges) {
+                int x = random.nextInt(v - 1);
+                sink.accept(v, (x >= w) ? x + 1 : x);
+            }
+        }
+    }
+
+    /**
+     * @return the digraph in compressed form
+     */
+    public CsrDigraph digraph() {
+        int capacity = (int) Math.min(Integer.MAX_VALUE - 8, (long) (this.vertices * (1 + this.extraEdges)) + 16);
+        int[][] edges = { new int[capacity], new int[capacity] };
+        int[] size = new int[1];
+        try {
+            this.edges((v, w) -> {
+                if (size[0] == edges[0].length) {
+                    edges[0] = Arrays.copyOf(edges[0], 2 * size[0]);
+                    edges[1] = Arrays.copyOf(edges[1], 2 * size[0]);
+                }
+                edges[0][size[0]] = v;
+                edges[1][size[0]] = w;
+                size[0]++;
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new CsrDigraph(this.vertices, edges[0], edges[1], size[0]);
+    }
+
+    /**
+     * Writes the digraph as a synsets and a hypernyms file in the WordNet format.
+     * Synset v holds the single noun {@code n<v>}.
+     * 
+     * @param synsets   - path of the synsets file to write
+     * @param hypernyms - path of the hypernyms file to write
+     */
+    public void write(String synsets, String hypernyms) {
+        try (BufferedWriter out = Files.newBufferedWriter(Paths.get(synsets), StandardCharsets.UTF_8)) {
+            for (int v = 0; v < this.vertices; v++) {
+                out.write(v + ",n" + v + ",synthetic synset " + v + "\n");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not write " + synsets, e);
+        }
+
+        try (BufferedWriter out = Files.newBufferedWriter(Paths.get(hypernyms), StandardCharsets.UTF_8)) {
+            // edges come grouped by tail, so each line is finished when the tail changes
+            int[] tail = { -1 };
+            this.edges((v, w) -> {
+                if (v != tail[0]) {
+                    if (tail[0] != -1) {
+                        out.write('\n');
+                    }
+                    out.write(Integer.toString(v));
+                    tail[0] = v;
+                }
+                out.write(',');
+                out.write(Integer.toString(w));
+            });
+            if (tail[0] != -1) {
+                out.write('\n');
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not write " + hypernyms, e);
+        }
+    }
+
+    /**
+     * Writes a synthetic WordNet to disk.
+     * Usage: {@code SyntheticDag vertices synsets.txt hypernyms.txt [roots] [seed]}
+     * 
+     * @param args
+     */
+    public static void main(String[] args) {
+        int vertices = Integer.parseInt(args[0]);
+        int roots = (args.length > 3) ? Integer.parseInt(args[3]) : 1;
+        long seed = (args.length > 4) ? Long.parseLong(args[4]) : 42;
+        new SyntheticDag(vertices, roots, WORDNET_EXTRA_EDGES, seed).write(args[1], args[2]);
+        StdOut.printf("wrote %d synsets to %s and %s\n", vertices, args[1], args[2]);
+    }
+}
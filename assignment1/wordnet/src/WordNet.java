@@ -1,11 +1,13 @@
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.Set;
 
-import edu.princeton.cs.algs4.Digraph;
-import edu.princeton.cs.algs4.In;
 import edu.princeton.cs.algs4.StdIn;
 import edu.princeton.cs.algs4.StdOut;
 
@@ -46,77 +48,306 @@ import edu.princeton.cs.algs4.StdOut;
  */
 public class WordNet {
     /**
-     * Map each synset id to a list of all its synset nouns.
-     * Use TreeMap since integer ids are naturally ordered.
+     * Everything a query reads, published as one immutable snapshot. Writers
+     * build a new State next to the current one and swap it in, so readers are
+     * never blocked and always see a consistent synsets, nouns and digraph.
      */
-    private final Map<Integer, String> idToNounsMap = new TreeMap<>();
+    private volatile State state;
 
     /**
-     * Map each noun to a list of its synset id.
-     * We use a list of ids in case some nouns appear more than once with different
-     * meanings (eg. worm).
-     * Use HashMap for constant lookup time of strings.
+     * Serializes writers; readers never take it.
      */
-    private final Map<String, List<Integer>> nounToIdMap = new HashMap<>();
+    private final Object writeLock = new Object();
 
     /**
-     * SAP object to calculate distance/ancestor between two nouns.
+     * One immutable version of the WordNet.
      */
-    private final SAP sap;
+    private static final class State {
+        /**
+         * Synset nouns and gloss of each synset id, decoded on demand from bytes
+         * outside the heap. Ids are dense, from 0 to V - 1.
+         */
+        private final SynsetArena synsets;
+
+        /**
+         * Map each noun to all of its synset ids.
+         * A noun can have several ids if it appears more than once with different
+         * meanings (eg. worm).
+         * Uses an open-addressing table over one shared int array of ids, so nothing
+         * is boxed.
+         */
+        private final NounIndex nounIndex;
+
+        /**
+         * Reverse of the hypernym digraph: each edge v→w represents that w is a
+         * hyponym of v.
+         */
+        private final CsrDigraph hyponyms;
+
+        /**
+         * Topological order and depth of every synset, checked at construction.
+         */
+        private final RootedDag dag;
+
+        /**
+         * SAP object to calculate distance/ancestor between two nouns.
+         */
+        private final SAP sap;
+
+        /**
+         * Optional cache of SAP results in front of {@code sap}; null if disabled.
+         */
+        private final SapCache cache;
+
+        /**
+         * Optional ancestor set of every synset as a compressed bitmap; null if
+         * disabled.
+         */
+        private final AncestorBitmaps bitmaps;
+
+        /**
+         * Search over both digraphs for the synsets closest to a noun.
+         */
+        private final Neighborhood neighborhood;
+
+        /**
+         * Descendant and noun counts and information content of every synset,
+         * built on first use so that updates and similarity-free clients do not
+         * pay for it; null until then.
+         */
+        private volatile InformationContent informationContent;
+
+        private State(SynsetArena synsets, NounIndex nounIndex, CsrDigraph hyponyms, RootedDag dag, SAP sap,
+                SapCache cache, AncestorBitmaps bitmaps) {
+            this.synsets = synsets;
+            this.nounIndex = nounIndex;
+            this.hyponyms = hyponyms;
+            this.dag = dag;
+            this.sap = sap;
+            this.cache = cache;
+            this.bitmaps = bitmaps;
+            this.neighborhood = new Neighborhood(sap.digraph(), hyponyms);
+        }
+
+        /**
+         * @return the information content of this version, building it if needed
+         */
+        private InformationContent informationContent() {
+            InformationContent content = this.informationContent;
+            if (content == null) {
+                // racing readers may each build it, but they build the same counts
+                content = new InformationContent(this.sap.digraph(), this.dag, this.nounIndex);
+                this.informationContent = content;
+            }
+            return content;
+        }
+    }
 
     /**
      * WordNet constructor takes the name of the two input files.
-     * Stores synsets data in instance variables {@code idToNounsMap} and
-     * {@code nounToIdMap}.
+     * Same as {@link #WordNet(String, String, Options)} with default options.
+     * 
+     * @param synsets   - relative path to a synsets file
+     * @param hypernyms - relative path to a hypernyms file
+     */
+    public WordNet(String synsets, String hypernyms) {
+        this(synsets, hypernyms, new Options());
+    }
+
+    /**
+     * WordNet constructor takes the name of the two input files.
+     * Stores synsets data in {@code synsets} and {@code nounIndex} of the
+     * initial state.
      * Creates a digraph from the hypernyms file, and a SAP object from the digraph.
      * 
      * @param synsets   - relative path to a synsets file;
      *                  format of file is: synset id, synset (synset) ..., gloss
      * @param hypernyms - relative path to a hypernyms file;
      *                  format of file is: synset id, hypernym id, (hypernym id) ...
+     * @param options   - optional features to enable
      */
-    public WordNet(String synsets, String hypernyms) {
+    public WordNet(String synsets, String hypernyms, Options options) {
         if (synsets == null || hypernyms == null || synsets.isEmpty() || hypernyms.isEmpty()) {
             throw new IllegalArgumentException("input files cannot be null!");
         }
+        if (options == null) {
+            throw new IllegalArgumentException("options cannot be null!");
+        }
 
         /*
          * map each synset id to its synonym set
          * read from `synsets.txt`, where the format is: synset id, synset(s), gloss
          */
-        In synsetsIn = new In(synsets);
-        while (synsetsIn.hasNextLine()) {
-            String[] tokens = synsetsIn.readLine().split(",");
-            final int id = Integer.parseInt(tokens[0]);
-            final String nouns = tokens[1];
-            this.idToNounsMap.put(id, nouns);
+        ByteBuffer input = WordNetParser.read(synsets);
+        /*
+         * copy the text off the heap into a buffer the arena owns, rather than keep
+         * a mapping of the caller's file, which could be edited or truncated while
+         * this WordNet still reads from it
+         */
+        ByteBuffer text = ByteBuffer.allocateDirect(input.limit()).put(input).flip();
+        WordNetParser.Synsets parsed = WordNetParser.parseSynsets(text);
+        int[] bounds = new int[4 * parsed.size];
+        boolean[] seen = new boolean[parsed.size];
+        int[] nounIds = new int[parsed.nounStart[parsed.size]];
+        for (int i = 0; i < parsed.size; i++) {
+            final int id = parsed.ids[i];
+            if (id >= parsed.size || seen[id]) {
+                throw new IllegalArgumentException(
+                        String.format("synset ids must be distinct and between 0 and %d!", parsed.size - 1));
+            }
+            seen[id] = true;
+            System.arraycopy(parsed.bounds, 4 * i, bounds, 4 * id, 4);
 
-            for (String s : nouns.split(" ")) {
-                this.nounToIdMap.putIfAbsent(s, new ArrayList<>());
-                this.nounToIdMap.get(s).add(id);
+            for (int j = parsed.nounStart[i]; j < parsed.nounStart[i + 1]; j++) {
+                nounIds[j] = id;
             }
         }
-        synsetsIn.close();
+        NounIndex nounIndex = new NounIndex(parsed.nouns, nounIds, nounIds.length);
 
         /*
          * create a digraph where each directed edge v→w represents that w is a hypernym
          * of v
          * read from hypernyms.txt, where the format is: synset id, hypernym id(s)
          */
-        Digraph digraph = new Digraph(this.idToNounsMap.size());
-        In hypernymsIn = new In(hypernyms);
-        while (hypernymsIn.hasNextLine()) {
-            String[] tokens = hypernymsIn.readLine().split(",");
-            final int id = Integer.parseInt(tokens[0]);
+        WordNetParser.Edges edges = WordNetParser.parseHypernyms(WordNetParser.read(hypernyms));
+        CsrDigraph digraph = new CsrDigraph(parsed.size, edges.from, edges.to, edges.size);
+
+        this.state = initialState(new SynsetArena(text, bounds), nounIndex, digraph, options);
+    }
 
-            for (int i = 1; i < tokens.length; i++) {
-                digraph.addEdge(id, Integer.parseInt(tokens[i]));
+    /**
+     * Validates the digraph and builds the first state over it.
+     */
+    private static State initialState(SynsetArena synsets, NounIndex nounIndex, CsrDigraph digraph,
+            Options options) {
+        // reject anything that is not a rooted DAG, in one linear pass
+        CsrDigraph hyponyms = digraph.reverse();
+        RootedDag dag = new RootedDag(digraph, hyponyms);
+
+        // construct a sap for this digraph
+        SAP sap = new SAP(digraph, options.labelIndex, dag);
+        sap.metrics(options.metrics);
+        SapCache cache = (options.cacheCapacity > 0) ? new SapCache(options.cacheCapacity) : null;
+        AncestorBitmaps bitmaps = options.ancestorBitmaps ? new AncestorBitmaps(digraph, dag) : null;
+        return new State(synsets, nounIndex, hyponyms, dag, sap, cache, bitmaps);
+    }
+
+    /**
+     * Loads a WordNet from a snapshot written by {@link #save(Path)}, with default
+     * options.
+     * 
+     * @param snapshot - path to a snapshot file
+     * @return the loaded WordNet
+     */
+    public static WordNet load(Path snapshot) {
+        return load(snapshot, new Options());
+    }
+
+    /**
+     * Loads a WordNet from a snapshot written by {@link #save(Path)}. The file is
+     * memory-mapped and its checksum verified before anything is built. The
+     * synset text is read from the mapping for as long as the WordNet lives, so
+     * the file must not be modified in place; {@link #save(Path)} replaces it
+     * with a new file instead, which is safe.
+     * 
+     * @param snapshot - path to a snapshot file
+     * @param options  - optional features to enable
+     * @return the loaded WordNet
+     * @throws IllegalArgumentException if the file is not a valid snapshot
+     */
+    public static WordNet load(Path snapshot, Options options) {
+        if (snapshot == null || options == null) {
+            throw new IllegalArgumentException("argument is null!");
+        }
+        return new WordNet(WordNetSnapshot.read(snapshot), options);
+    }
+
+    /**
+     * Builds a WordNet from the contents of a snapshot.
+     */
+    private WordNet(WordNetSnapshot.Contents contents, Options options) {
+        this.state = initialState(contents.synsets, contents.nouns, contents.digraph, options);
+    }
+
+    /**
+     * Writes the noun dictionary, synsets and hypernym digraph to a compact binary
+     * snapshot, so that later processes can {@link #load(Path)} it instead of
+     * parsing the text files. See {@link WordNetSnapshot} for the format.
+     * 
+     * @param snapshot - path of the file to write; replaced atomically if it
+     *                 exists
+     */
+    public void save(Path snapshot) {
+        if (snapshot == null) {
+            throw new IllegalArgumentException("snapshot path cannot be null!");
+        }
+        State state = this.state;
+        WordNetSnapshot.write(snapshot, state.synsets, state.nounIndex, state.sap.digraph());
+    }
+
+    /**
+     * Optional features of a WordNet, all disabled by default.
+     */
+    public static final class Options {
+        private int cacheCapacity;
+        private boolean labelIndex;
+        private boolean ancestorBitmaps;
+        private SapMetrics metrics;
+
+        /**
+         * Caches the results of up to {@code capacity} distinct noun pairs, evicting
+         * the least recently used pair when full. Pairs are keyed by their synset
+         * ids, so nouns sharing the same synsets share entries.
+         * 
+         * @param capacity - maximum number of cached pairs; 0 disables the cache
+         * @return these options
+         */
+        public Options cacheCapacity(int capacity) {
+            if (capacity < 0) {
+                throw new IllegalArgumentException("cache capacity cannot be negative!");
             }
+            this.cacheCapacity = capacity;
+            return this;
         }
-        hypernymsIn.close();
 
-        // construct a sap for this digraph
-        this.sap = new SAP(digraph);
+        /**
+         * Precomputes every synset's ancestors and their distances at construction,
+         * so that distance() and sap() merge two sorted labels instead of running a
+         * BFS. See {@link AncestorIndex} for the build time and memory cost.
+         * 
+         * @param enabled - true to build the index
+         * @return these options
+         */
+        public Options labelIndex(boolean enabled) {
+            this.labelIndex = enabled;
+            return this;
+        }
+
+        /**
+         * Stores every synset's ancestor set as a compressed bitmap, so that
+         * sharesAncestorBelow() and deepestCommonAncestor() intersect two bitmaps
+         * instead of running a BFS. The bitmaps are rebuilt after every update.
+         * See {@link AncestorBitmaps}.
+         * 
+         * @param enabled - true to build the bitmaps
+         * @return these options
+         */
+        public Options ancestorBitmaps(boolean enabled) {
+            this.ancestorBitmaps = enabled;
+            return this;
+        }
+
+        /**
+         * Records statistics of every BFS query into {@code metrics}. See
+         * {@link SapMetrics}.
+         * 
+         * @param metrics - where to record; null to disable
+         * @return these options
+         */
+        public Options metrics(SapMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
     }
 
     /**
@@ -125,7 +356,7 @@ public class WordNet {
      * @return an Iterable containing all nouns
      */
     public Iterable<String> nouns() {
-        return this.nounToIdMap.keySet();
+        return this.state.nounIndex.nouns();
     }
 
     /**
@@ -138,7 +369,7 @@ public class WordNet {
         if (word == null || word.isEmpty()) {
             throw new IllegalArgumentException("word is null or empty!");
         }
-        return this.nounToIdMap.containsKey(word);
+        return this.state.nounIndex.contains(word);
     }
 
     /**
@@ -151,14 +382,99 @@ public class WordNet {
      * @return shortest distance between nounA and nounB; -1 if no path exists
      */
     public int distance(String nounA, String nounB) {
-        this.validateNoun(nounA);
-        this.validateNoun(nounB);
-        assert sap != null;
+        State state = this.state;
+        final int a = this.noun(state, nounA), b = this.noun(state, nounB);
+        final int[] start = state.nounIndex.idStartArray(), ids = state.nounIndex.idArray();
 
-        List<Integer> idA = this.nounToIdMap.get(nounA);
-        List<Integer> idB = this.nounToIdMap.get(nounB);
+        if (state.cache != null) {
+            return state.cache.get(state.sap, ids, start[a], start[a + 1], ids, start[b], start[b + 1]).length();
+        }
+        return state.sap.length(ids, start[a], start[a + 1], ids, start[b], start[b + 1]);
+    }
 
-        return sap.length(idA, idB);
+    /**
+     * Whether nounA and nounB are at most k apart. Cheaper than comparing
+     * {@link #distance} against k, since the search stops at that bound; a pair
+     * already in the result cache is answered from it, but a bounded search does
+     * not fill the cache.
+     * 
+     * @param nounA
+     * @param nounB
+     * @param k     - largest distance accepted
+     * @return true if distance(nounA, nounB) is at most k
+     */
+    public boolean withinDistance(String nounA, String nounB, int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k cannot be negative!");
+        }
+        State state = this.state;
+        final int a = this.noun(state, nounA), b = this.noun(state, nounB);
+        final int[] start = state.nounIndex.idStartArray(), ids = state.nounIndex.idArray();
+
+        if (state.cache != null) {
+            int cached = state.cache.peekLength(ids, start[a], start[a + 1], ids, start[b], start[b + 1]);
+            if (cached != -2) {
+                return cached != -1 && cached <= k;
+            }
+        }
+        return state.sap.lengthWithin(ids, start[a], start[a + 1], ids, start[b], start[b + 1], k) != -1;
+    }
+
+    /**
+     * Distances from the synsets of a noun to all of their ancestors, computed by
+     * one BFS. Comparing two labels gives the same result as {@link #distance}
+     * without touching the digraph again.
+     * 
+     * @param noun
+     * @return the ancestor label of the noun's synsets
+     */
+    public AncestorLabel label(String noun) {
+        State state = this.state;
+        return state.sap.label(this.ids(state, noun));
+    }
+
+    /**
+     * Distances of shortest ancestral paths for a batch of noun pairs. Pairs that
+     * share their first noun reuse one BFS tree, and the work runs in parallel.
+     * The result cache is not consulted.
+     * 
+     * @param pairs - noun pairs, each an array {nounA, nounB}
+     * @return shortest distance for each pair, in input order; -1 where no path
+     *         exists
+     */
+    public int[] distances(List<String[]> pairs) {
+        int[] distances = new int[(pairs == null) ? 0 : pairs.size()];
+        this.distances(pairs, (i, dist) -> distances[i] = dist);
+        return distances;
+    }
+
+    /**
+     * Same as {@link #distances(List)}, but streams each distance to {@code sink}
+     * as soon as it is computed. The sink is called from worker threads in no
+     * particular order.
+     * 
+     * @param pairs - noun pairs, each an array {nounA, nounB}
+     * @param sink  - receives (index, distance) for every pair
+     */
+    public void distances(List<String[]> pairs, SAP.ResultSink sink) {
+        if (pairs == null || sink == null) {
+            throw new IllegalArgumentException("argument is null!");
+        }
+        State state = this.state;
+
+        // one shared id array per noun, so pairs with the same first noun group together
+        Map<String, int[]> ids = new HashMap<>();
+        int[][] idA = new int[pairs.size()][];
+        int[][] idB = new int[pairs.size()][];
+        for (int i = 0; i < idA.length; i++) {
+            String[] pair = pairs.get(i);
+            if (pair == null || pair.length != 2) {
+                throw new IllegalArgumentException("each pair must hold exactly two nouns!");
+            }
+            idA[i] = ids.computeIfAbsent(pair[0], noun -> this.ids(state, noun));
+            idB[i] = ids.computeIfAbsent(pair[1], noun -> this.ids(state, noun));
+        }
+        state.sap.lengths(idA, idB, sink);
     }
 
     /**
@@ -171,36 +487,573 @@ public class WordNet {
      *         in the shortest ancestral path
      */
     public String sap(String nounA, String nounB) {
-        this.validateNoun(nounA);
-        this.validateNoun(nounB);
-        assert sap != null;
-
-        List<Integer> idA = this.nounToIdMap.get(nounA);
-        List<Integer> idB = this.nounToIdMap.get(nounB);
+        State state = this.state;
+        final int a = this.noun(state, nounA), b = this.noun(state, nounB);
+        final int[] start = state.nounIndex.idStartArray(), ids = state.nounIndex.idArray();
 
-        final int idAncestor = sap.ancestor(idA, idB);
+        final int idAncestor = (state.cache != null)
+                ? state.cache.get(state.sap, ids, start[a], start[a + 1], ids, start[b], start[b + 1]).ancestor()
+                : state.sap.ancestor(ids, start[a], start[a + 1], ids, start[b], start[b + 1]);
         if (idAncestor == -1) {
             return null;
         }
 
-        return idToNounsMap.get(idAncestor);
+        return state.synsets.synset(idAncestor);
+    }
+
+    /**
+     * Shortest ancestral path between nounA and nounB, computed in a single
+     * traversal. Use this instead of calling {@link #distance} and {@link #sap}
+     * back-to-back for the same pair.
+     * 
+     * @param nounA
+     * @param nounB
+     * @return the distance, common ancestor and both half-paths between nounA and
+     *         nounB
+     */
+    public Relation relation(String nounA, String nounB) {
+        return this.relation(this.state, nounA, nounB);
+    }
+
+    private Relation relation(State state, String nounA, String nounB) {
+        final int a = this.noun(state, nounA), b = this.noun(state, nounB);
+        final int[] start = state.nounIndex.idStartArray(), ids = state.nounIndex.idArray();
+
+        SapResult result = (state.cache != null)
+                ? state.cache.get(state.sap, ids, start[a], start[a + 1], ids, start[b], start[b + 1])
+                : state.sap.query(ids, start[a], start[a + 1], ids, start[b], start[b + 1]);
+        return new Relation(result, result.hasPath() ? state.synsets.synset(result.ancestor()) : null);
+    }
+
+    /**
+     * The k nouns closest to a noun by shortest ancestral path distance, nearest
+     * first. The search expands from the noun's synsets up through their
+     * ancestors and down into the ancestors' descendants in increasing
+     * distance, and stops as soon as k other nouns are found, so its cost
+     * depends on the size of that neighborhood rather than the whole lexicon.
+     * Nouns at the same distance are returned in the order they are reached.
+     * 
+     * @param noun
+     * @param k    - number of nouns to return
+     * @return up to k nouns other than noun, each with its distance from noun
+     */
+    public List<Neighbor> nearest(String noun, int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k cannot be negative!");
+        }
+        State state = this.state;
+        int[] ids = this.ids(state, noun);
+        List<Neighbor> nearest = new ArrayList<>(Math.min(k, 1024));
+        if (k == 0) {
+            return nearest;
+        }
+
+        // a noun in several synsets is reported from the closest one only
+        Set<String> seen = new HashSet<>();
+        seen.add(noun);
+        state.neighborhood.search(ids, (synset, distance) -> {
+            for (String other : state.synsets.synset(synset).split(" ")) {
+                if (!other.isEmpty() && seen.add(other)) {
+                    nearest.add(new Neighbor(other, distance));
+                    if (nearest.size() == k) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        });
+        return nearest;
+    }
+
+    /**
+     * A noun returned by {@link WordNet#nearest}, with its distance.
+     */
+    public static final class Neighbor {
+        private final String noun;
+        private final int distance;
+
+        private Neighbor(String noun, int distance) {
+            this.noun = noun;
+            this.distance = distance;
+        }
+
+        public String noun() {
+            return this.noun;
+        }
+
+        /**
+         * @return shortest ancestral path distance from the query noun
+         */
+        public int distance() {
+            return this.distance;
+        }
+
+        @Override
+        public String toString() {
+            return this.noun + " (" + this.distance + ")";
+        }
+    }
+
+    /**
+     * Depth of a noun: the length of the shortest hypernym path from any of its
+     * synsets to the root.
+     * 
+     * @param noun
+     * @return depth of the noun; 0 if it is in the root synset
+     */
+    public int depth(String noun) {
+        State state = this.state;
+        int depth = Integer.MAX_VALUE;
+        for (int id : this.ids(state, noun)) {
+            depth = Math.min(depth, state.dag.depth(id));
+        }
+        return depth;
+    }
+
+    /**
+     * @return largest depth of any synset
+     */
+    public int height() {
+        return this.state.dag.height();
+    }
+
+    /**
+     * Wu-Palmer similarity of nounA and nounB, in (0, 1]: twice the depth of the
+     * shortest common ancestor over the sum of the depths of the two nouns,
+     * measured along the shortest ancestral path. Once the path is known (or
+     * cached) the depths are O(1) lookups.
+     * 
+     * @param nounA
+     * @param nounB
+     * @return similarity of nounA and nounB; 1 if they share a synset
+     */
+    public double wuPalmer(String nounA, String nounB) {
+        return this.similarity(nounA, nounB, Measure.WU_PALMER);
+    }
+
+    /**
+     * Similarity measures between two nouns, each taken at the synsets and
+     * common ancestor of their shortest ancestral path. IC is the
+     * {@link InformationContent} of a synset.
+     */
+    public enum Measure {
+        /**
+         * Wu-Palmer: {@code 2 depth(lcs) / (distance + 2 depth(lcs))}, counting the
+         * root as depth 1; see {@link WordNet#wuPalmer}.
+         */
+        WU_PALMER,
+
+        /**
+         * Resnik: {@code IC(lcs)}, between 0 and the IC of the rarest synset.
+         */
+        RESNIK,
+
+        /**
+         * Lin: {@code 2 IC(lcs) / (IC(a) + IC(b))}, between 0 and 1.
+         */
+        LIN,
+
+        /**
+         * Jiang-Conrath: {@code 1 / (1 + IC(a) + IC(b) - 2 IC(lcs))}, between 0 and 1,
+         * with the distance shifted by 1 so that equal synsets are not infinite.
+         */
+        JIANG_CONRATH
+    }
+
+    /**
+     * Similarity between nounA and nounB. The common ancestor lcs and the synsets
+     * a of nounA and b of nounB are those of the shortest ancestral path, found
+     * like {@link #relation}; every count the measure needs is precomputed, so
+     * nothing more is searched. Every measure is symmetric in the two nouns.
+     * 
+     * @param nounA
+     * @param nounB
+     * @param measure - the similarity measure
+     * @return the similarity; 0 if the nouns have no common ancestor
+     */
+    public double similarity(String nounA, String nounB, Measure measure) {
+        if (measure == null) {
+            throw new IllegalArgumentException("measure cannot be null!");
+        }
+        State state = this.state;
+        /*
+         * when several common ancestors tie for the shortest path, the one found
+         * depends on the order of the nouns, so put them in a fixed order to keep
+         * every measure symmetric
+         */
+        boolean swap = nounA != null && nounB != null && nounA.compareTo(nounB) > 0;
+        Relation relation = swap ? this.relation(state, nounB, nounA) : this.relation(state, nounA, nounB);
+        if (relation.distance() == -1) {
+            return 0.0;
+        }
+        InformationContent content = state.informationContent();
+        int a = relation.pathFromA()[0];
+        int b = relation.pathFromB()[0];
+        int lcs = relation.ancestorId();
+        switch (measure) {
+            case WU_PALMER:
+                if (relation.distance() == 0) {
+                    return 1.0;
+                }
+                // count the root as depth 1, so two nouns meeting only at the root are not 0
+                int common = state.dag.depth(lcs) + 1;
+                return 2.0 * common / (relation.distance() + 2 * common);
+            case RESNIK:
+                return content.ic(lcs);
+            /*
+             * IC(lcs) never exceeds IC(a) or IC(b) in exact arithmetic, but the
+             * rounding of the logarithms can push it a few ulps above, so clamp both
+             * measures to their documented range
+             */
+            case LIN:
+                double sum = content.ic(a) + content.ic(b);
+                return (sum == 0) ? 1.0 : Math.min(1.0, 2 * content.ic(lcs) / sum);
+            case JIANG_CONRATH:
+                return 1 / (1 + Math.max(0.0, content.ic(a) + content.ic(b) - 2 * content.ic(lcs)));
+            default:
+                throw new IllegalStateException("unknown measure " + measure);
+        }
+    }
+
+    /**
+     * Whether nounA and nounB share an ancestor synset whose depth is at least
+     * {@code depth}, i.e. whether they are related below that level of the
+     * hierarchy. A noun's own synsets count as its ancestors.
+     * 
+     * @param nounA
+     * @param nounB
+     * @param depth - minimum depth of the common ancestor
+     * @return true if such a common ancestor exists
+     */
+    public boolean sharesAncestorBelow(String nounA, String nounB, int depth) {
+        State state = this.state;
+        int[] idA = this.ids(state, nounA);
+        int[] idB = this.ids(state, nounB);
+        if (state.bitmaps != null) {
+            for (int a : idA) {
+                for (int b : idB) {
+                    if (state.bitmaps.sharesAncestorBelow(a, b, depth)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+        int deepest = state.sap.label(idA).deepest(state.sap.label(idB), state.dag);
+        return state.dag.depth(deepest) >= depth;
+    }
+
+    /**
+     * A common ancestor of nounA and nounB of largest depth. Unlike
+     * {@link #sap}, it is not necessarily on a shortest ancestral path.
+     * 
+     * @param nounA
+     * @param nounB
+     * @return all synset nouns of a deepest common ancestor
+     */
+    public String deepestCommonAncestor(String nounA, String nounB) {
+        State state = this.state;
+        int[] idA = this.ids(state, nounA);
+        int[] idB = this.ids(state, nounB);
+        int deepest = -1;
+        if (state.bitmaps != null) {
+            for (int a : idA) {
+                for (int b : idB) {
+                    int x = state.bitmaps.deepestCommonAncestor(a, b);
+                    if (deepest == -1 || state.dag.depth(x) > state.dag.depth(deepest)) {
+                        deepest = x;
+                    }
+                }
+            }
+        } else {
+            deepest = state.sap.label(idA).deepest(state.sap.label(idB), state.dag);
+        }
+        return state.synsets.synset(deepest);
+    }
+
+    /**
+     * Synset nouns of a synset id, e.g. of {@link Relation#ancestorId()}.
+     * 
+     * @param id - a synset id
+     * @return all nouns of the synset, separated by spaces
+     */
+    public String synset(int id) {
+        State state = this.state;
+        this.validateSynset(state, id);
+        return state.synsets.synset(id);
+    }
+
+    /**
+     * Gloss of a synset id, i.e. the rest of its line in the synsets file. It is
+     * decoded from the file's bytes on every call, so glosses take no heap until
+     * they are asked for.
+     * 
+     * @param id - a synset id
+     * @return the gloss; empty if the synset has none
+     */
+    public String gloss(int id) {
+        State state = this.state;
+        this.validateSynset(state, id);
+        return state.synsets.gloss(id);
+    }
+
+    /**
+     * @return number of synsets, i.e. one more than the largest synset id
+     */
+    public int synsetCount() {
+        return this.state.synsets.size();
+    }
+
+    /**
+     * Adds a synset under one or more existing hypernyms. Readers running
+     * concurrently keep the version they started with and are never blocked;
+     * later calls see the new synset.
+     * <p>
+     * No existing synset gains ancestors, so cached results, ancestor labels,
+     * depths and ancestor bitmaps all stay valid and are carried over; only the
+     * new synset's are built.
+     * 
+     * @param synset    - space-separated nouns of the new synset
+     * @param hypernyms - ids of its hypernyms; at least one, so the digraph stays
+     *                  rooted
+     * @return id of the new synset
+     */
+    public int addSynset(String synset, int... hypernyms) {
+        return this.addSynset(synset, "", hypernyms);
+    }
+
+    /**
+     * Same as {@link #addSynset(String, int...)}, also giving the new synset a
+     * gloss.
+     * 
+     * @param synset    - space-separated nouns of the new synset
+     * @param gloss     - its gloss
+     * @param hypernyms - ids of its hypernyms; at least one
+     * @return id of the new synset
+     */
+    public int addSynset(String synset, String gloss, int... hypernyms) {
+        if (synset == null || synset.trim().isEmpty() || gloss == null || hypernyms == null) {
+            throw new IllegalArgumentException("argument is null or empty!");
+        }
+        if (hypernyms.length == 0) {
+            throw new IllegalArgumentException("a new synset needs at least one hypernym!");
+        }
+        String[] nouns = synset.trim().split(" +");
+        int[] adj = Arrays.stream(hypernyms).distinct().toArray();
+
+        synchronized (this.writeLock) {
+            State state = this.state;
+            final int id = state.synsets.size();
+            CsrDigraph digraph = state.sap.digraph().withVertex(adj);
+            CsrDigraph hyponyms = state.hyponyms.withVertexFrom(adj);
+
+            SynsetArena synsets = state.synsets.plus(synset.trim(), gloss);
+            this.state = this.nextState(state, synsets, state.nounIndex.plus(nouns, id), digraph, hyponyms,
+                    new boolean[id + 1]);
+            return id;
+        }
+    }
+
+    /**
+     * Adds a hypernym edge from one existing synset to another. Readers running
+     * concurrently keep the version they started with and are never blocked;
+     * later calls see the new edge.
+     * <p>
+     * Only the synset and its descendants gain ancestors, so only their ancestor
+     * labels, depths and ancestor bitmaps are rebuilt and only cached results
+     * involving them are dropped.
+     * 
+     * @param synset   - id of the synset
+     * @param hypernym - id of its new hypernym
+     * @throws IllegalArgumentException if the edge would create a cycle
+     */
+    public void addHypernym(int synset, int hypernym) {
+        synchronized (this.writeLock) {
+            State state = this.state;
+            CsrDigraph digraph = state.sap.digraph();
+            this.validateSynset(state, synset);
+            this.validateSynset(state, hypernym);
+            for (int e = digraph.offsets[synset]; e < digraph.offsets[synset + 1]; e++) {
+                if (digraph.targets[e] == hypernym) {
+                    return; // already a hypernym
+                }
+            }
+
+            // the synset and everything below it, found on the hyponym digraph
+            boolean[] stale = new boolean[state.synsets.size()];
+            int[] queue = new int[state.synsets.size()];
+            int tail = 0;
+            stale[synset] = true;
+            queue[tail++] = synset;
+            for (int head = 0; head < tail; head++) {
+                int x = queue[head];
+                for (int e = state.hyponyms.offsets[x]; e < state.hyponyms.offsets[x + 1]; e++) {
+                    int y = state.hyponyms.targets[e];
+                    if (!stale[y]) {
+                        stale[y] = true;
+                        queue[tail++] = y;
+                    }
+                }
+            }
+            if (stale[hypernym]) {
+                throw new IllegalArgumentException(
+                        String.format("hypernym %d→%d would create a cycle!", synset, hypernym));
+            }
+
+            this.state = this.nextState(state, state.synsets, state.nounIndex, digraph.withEdge(synset, hypernym),
+                    state.hyponyms.withEdge(hypernym, synset), stale);
+        }
+    }
+
+    /**
+     * Builds the state following {@code state} after an update, carrying over the
+     * ancestor index, cache, depths and ancestor bitmaps except for stale
+     * synsets; synsets from state's count on are new.
+     * 
+     * @param stale - stale[v] is true if synset v gained ancestors
+     */
+    private State nextState(State state, SynsetArena synsets, NounIndex nounIndex, CsrDigraph digraph,
+            CsrDigraph hyponyms, boolean[] stale) {
+        RootedDag dag = new RootedDag(digraph, state.dag, stale);
+        AncestorIndex previous = state.sap.index();
+        AncestorIndex index = (previous == null) ? null : new AncestorIndex(digraph, previous, stale);
+        SapCache cache = (state.cache == null) ? null : state.cache.retain(stale);
+        AncestorBitmaps bitmaps = (state.bitmaps == null) ? null
+                : new AncestorBitmaps(digraph, dag, state.bitmaps, stale);
+        SAP sap = new SAP(digraph, index, dag);
+        sap.metrics(state.sap.metrics());
+        return new State(synsets, nounIndex, hyponyms, dag, sap, cache, bitmaps);
+    }
+
+    /**
+     * Counters of the result cache enabled through
+     * {@link Options#cacheCapacity(int)}.
+     * 
+     * @return a snapshot of cache statistics; null if the cache is disabled
+     */
+    public SapCache.Stats cacheStats() {
+        SapCache cache = this.state.cache;
+        return (cache != null) ? cache.stats() : null;
+    }
+
+    /**
+     * Looks up the synset ids of many nouns and returns the neighborhood search
+     * of the same version of this WordNet, so that a long-running reader such as
+     * {@link DistanceMatrixExport} is not affected by later updates.
+     * 
+     * @param nouns - nouns to look up
+     * @param ids   - receives the synset ids of nouns.get(i) at index i
+     * @return the neighborhood search over that version's digraphs
+     */
+    Neighborhood neighborhood(List<String> nouns, int[][] ids) {
+        State state = this.state;
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = this.ids(state, nouns.get(i));
+        }
+        return state.neighborhood;
+    }
+
+    /**
+     * @return the metrics set through {@link Options#metrics(SapMetrics)}; null if
+     *         disabled
+     */
+    public SapMetrics metrics() {
+        return this.state.sap.metrics();
+    }
+
+    /**
+     * Immutable result of {@link WordNet#relation}: the shortest ancestral path
+     * between two nouns together with the synset of its common ancestor.
+     */
+    public static final class Relation {
+        private final SapResult result;
+        private final String ancestorSynset;
+
+        private Relation(SapResult result, String ancestorSynset) {
+            this.result = result;
+            this.ancestorSynset = ancestorSynset;
+        }
+
+        /**
+         * @return shortest distance between the nouns; -1 if no path exists
+         */
+        public int distance() {
+            return this.result.length();
+        }
+
+        /**
+         * @return synset id of the common ancestor; -1 if no path exists
+         */
+        public int ancestorId() {
+            return this.result.ancestor();
+        }
+
+        /**
+         * @return all synset nouns of the common ancestor; null if no path exists
+         */
+        public String ancestorSynset() {
+            return this.ancestorSynset;
+        }
+
+        /**
+         * @return synset ids from a synset of nounA up to the common ancestor
+         */
+        public int[] pathFromA() {
+            return this.result.pathFromV();
+        }
+
+        /**
+         * @return synset ids from a synset of nounB up to the common ancestor
+         */
+        public int[] pathFromB() {
+            return this.result.pathFromW();
+        }
     }
 
     /**
      * Helper function to ensure noun is valid and inside WordNet.
      * 
+     * @param state - the version of WordNet being read
+     * @param noun
+     * @return synset ids of the noun
+     * @throws IllegalArgumentException null or empty noun
+     * @throws IllegalArgumentException noun not in WordNet
+     */
+    private int[] ids(State state, String noun) {
+        int i = this.noun(state, noun);
+        final int[] start = state.nounIndex.idStartArray();
+        return Arrays.copyOfRange(state.nounIndex.idArray(), start[i], start[i + 1]);
+    }
+
+    /**
+     * Helper function to ensure noun is valid and inside WordNet. The hot query
+     * paths pass the noun's range of the index's shared id array to SAP instead
+     * of copying the ids out.
+     * 
+     * @param state - the version of WordNet being read
      * @param noun
+     * @return number of the noun in the index; its synset ids are
+     *         {@code idArray()[idStartArray()[i] .. idStartArray()[i + 1])}
      * @throws IllegalArgumentException null or empty noun
      * @throws IllegalArgumentException noun not in WordNet
      */
-    private void validateNoun(String noun) {
+    private int noun(State state, String noun) {
         if (noun == null || noun.isEmpty()) {
             throw new IllegalArgumentException("noun cannot be null or empty!");
         }
-        if (!isNoun(noun)) {
+        int i = state.nounIndex.find(noun);
+        if (i == -1) {
             throw new IllegalArgumentException(
                     String.format("noun '%s' does not exist in digraph!", noun));
         }
+        return i;
+    }
+
+    private void validateSynset(State state, int id) {
+        if (id < 0 || id >= state.synsets.size()) {
+            throw new IllegalArgumentException(
+                    String.format("synset id %d is not between 0 and %d", id, state.synsets.size() - 1));
+        }
     }
 
     /**
@@ -210,12 +1063,6 @@ public class WordNet {
      */
     public static void main(String[] args) {
         WordNet wordnet = new WordNet(args[0], args[1]);
-        /*
-         * test that we process input files correctly
-         */
-        // System.out.println(wordnet.digraph);
-        // System.out.println(wordnet.idToNounsMap);
-        // System.out.println(wordnet.nounToIdMap);
 
         /*
          * test shortest path between two nouns in wordnet
@@ -224,9 +1071,9 @@ public class WordNet {
         while (!StdIn.isEmpty()) {
             String nounA = StdIn.readString();
             String nounB = StdIn.readString();
-            int dist = wordnet.distance(nounA, nounB);
-            String sap = wordnet.sap(nounA, nounB);
-            StdOut.printf("shortest distance = %d, common ancestor = %s\n", dist, sap);
+            Relation relation = wordnet.relation(nounA, nounB);
+            StdOut.printf("shortest distance = %d, common ancestor = %s\n",
+                    relation.distance(), relation.ancestorSynset());
         }
     }
 }
\ No newline at end of file
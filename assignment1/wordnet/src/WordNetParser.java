@@ -0,0 +1,341 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import edu.princeton.cs.algs4.In;
+
+/**
+ * WordNetParser class.
+ * <p>
+ * Parses the synsets and hypernyms files straight from their bytes. Files on
+ * disk are memory-mapped; ids are parsed digit by digit and nouns are cut out
+ * of the buffer without regular expressions or per-line split arrays. Inputs
+ * larger than {@link #PARALLEL_THRESHOLD} bytes are split at line boundaries
+ * into one chunk per core, and the chunks are parsed in parallel and
+ * concatenated in file order.
+ */
+public final class WordNetParser {
+    /**
+     * Inputs smaller than this are parsed on the calling thread.
+     */
+    static final int PARALLEL_THRESHOLD = 1 << 22;
+
+    private WordNetParser() {
+    }
+
+    /**
+     * Parsed contents of a synsets file, in file order.
+     * Line i has id {@code ids[i]} and nouns
+     * {@code nouns[nounStart[i] .. nounStart[i + 1])}; its synset string and its
+     * gloss are the byte ranges {@code [bounds[4 i], bounds[4 i + 1])} and
+     * {@code [bounds[4 i + 2], bounds[4 i + 3])} of the input.
+     */
+    static final class Synsets {
+        int size;
+        int[] ids;
+        int[] bounds;
+        int[] nounStart;
+        String[] nouns;
+    }
+
+    /**
+     * Parsed edges of a hypernyms file; edge i is {@code from[i]→to[i]}.
+     */
+    static final class Edges {
+        int size;
+        int[] from;
+        int[] to;
+    }
+
+    /**
+     * Reads a whole input. Regular files are memory-mapped; anything else that
+     * algs4 {@link In} accepts (classpath resources, URLs) is read into memory.
+     * 
+     * @param name - file name, resource or URL
+     * @return the bytes of the input
+     */
+    static ByteBuffer read(String name) {
+        Path path = Paths.get(name);
+        if (Files.isRegularFile(path)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (IOException e) {
+                throw new UncheckedIOException("could not read " + name, e);
+            }
+        }
+        In in = new In(name);
+        byte[] bytes = in.readAll().getBytes(StandardCharsets.UTF_8);
+        in.close();
+        return ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Parses a synsets file, where the format of a line is:
+     * synset id, synset (synset) ..., gloss
+     * 
+     * @param buf - the file contents
+     * @return ids, text bounds and nouns of every line
+     */
+    static Synsets parseSynsets(ByteBuffer buf) {
+        int[] bounds = chunks(buf);
+        Synsets[] parts = IntStream.range(0, bounds.length - 1).parallel()
+                .mapToObj(i -> parseSynsets(buf, bounds[i], bounds[i + 1]))
+                .toArray(Synsets[]::new);
+        if (parts.length == 1) {
+            return parts[0];
+        }
+
+        Synsets all = new Synsets();
+        int nouns = 0;
+        for (Synsets part : parts) {
+            all.size += part.size;
+            nouns += part.nounStart[part.size];
+        }
+        all.ids = new int[all.size];
+        all.bounds = new int[4 * all.size];
+        all.nounStart = new int[all.size + 1];
+        all.nouns = new String[nouns];
+        int line = 0, noun = 0;
+        for (Synsets part : parts) {
+            System.arraycopy(part.ids, 0, all.ids, line, part.size);
+            System.arraycopy(part.bounds, 0, all.bounds, 4 * line, 4 * part.size);
+            for (int i = 0; i < part.size; i++) {
+                all.nounStart[line + i] = noun + part.nounStart[i];
+            }
+            System.arraycopy(part.nouns, 0, all.nouns, noun, part.nounStart[part.size]);
+            line += part.size;
+            noun += part.nounStart[part.size];
+        }
+        all.nounStart[all.size] = noun;
+        return all;
+    }
+
+    private static Synsets parseSynsets(ByteBuffer buf, int from, int to) {
+        Synsets part = new Synsets();
+        int capacity = Math.max(16, (to - from) / 64);
+        part.ids = new int[capacity];
+        part.bounds = new int[4 * capacity];
+        part.nounStart = new int[capacity + 1];
+        part.nouns = new String[capacity];
+        byte[] bytes = new byte[256];
+        int nouns = 0;
+
+        int pos = from;
+        while (pos < to) {
+            int end = lineEnd(buf, pos, to);
+            if (isBlank(buf, pos, end)) {
+                pos = end + 1;
+                continue;
+            }
+            int comma = indexOf(buf, ',', pos, end);
+            if (comma == -1) {
+                throw malformed(buf, pos, end);
+            }
+            int id = parseInt(buf, pos, comma);
+            int synsetEnd = indexOf(buf, ',', comma + 1, end);
+            int glossStart, glossEnd;
+            if (synsetEnd == -1) {
+                synsetEnd = trimEnd(buf, comma + 1, end);
+                glossStart = glossEnd = synsetEnd;
+            } else {
+                // the gloss is the rest of the line, commas included
+                glossStart = synsetEnd + 1;
+                glossEnd = trimEnd(buf, glossStart, end);
+            }
+
+            if (part.size == part.ids.length) {
+                capacity = 2 * part.size;
+                part.ids = Arrays.copyOf(part.ids, capacity);
+                part.bounds = Arrays.copyOf(part.bounds, 4 * capacity);
+                part.nounStart = Arrays.copyOf(part.nounStart, capacity + 1);
+            }
+            int length = synsetEnd - comma - 1;
+            if (bytes.length < length) {
+                bytes = new byte[2 * length];
+            }
+            buf.get(comma + 1, bytes, 0, length);
+            String synset = new String(bytes, 0, length, StandardCharsets.UTF_8);
+            part.ids[part.size] = id;
+            part.bounds[4 * part.size] = comma + 1;
+            part.bounds[4 * part.size + 1] = synsetEnd;
+            part.bounds[4 * part.size + 2] = glossStart;
+            part.bounds[4 * part.size + 3] = glossEnd;
+            part.nounStart[part.size] = nouns;
+            part.size++;
+
+            // cut the space-separated nouns out of the synset
+            for (int start = 0; start < synset.length();) {
+                int space = synset.indexOf(' ', start);
+                if (space == -1) {
+                    space = synset.length();
+                }
+                if (space > start) {
+                    if (nouns == part.nouns.length) {
+                        part.nouns = Arrays.copyOf(part.nouns, 2 * nouns);
+                    }
+                    part.nouns[nouns++] = synset.substring(start, space);
+                }
+                start = space + 1;
+            }
+            pos = end + 1;
+        }
+        part.nounStart[part.size] = nouns;
+        return part;
+    }
+
+    /**
+     * Parses a hypernyms file, where the format of a line is:
+     * synset id, hypernym id, (hypernym id) ...
+     * 
+     * @param buf - the file contents
+     * @return every synset→hypernym edge
+     */
+    static Edges parseHypernyms(ByteBuffer buf) {
+        int[] bounds = chunks(buf);
+        Edges[] parts = IntStream.range(0, bounds.length - 1).parallel()
+                .mapToObj(i -> parseHypernyms(buf, bounds[i], bounds[i + 1]))
+                .toArray(Edges[]::new);
+        if (parts.length == 1) {
+            return parts[0];
+        }
+
+        Edges all = new Edges();
+        for (Edges part : parts) {
+            all.size += part.size;
+        }
+        all.from = new int[all.size];
+        all.to = new int[all.size];
+        int edge = 0;
+        for (Edges part : parts) {
+            System.arraycopy(part.from, 0, all.from, edge, part.size);
+            System.arraycopy(part.to, 0, all.to, edge, part.size);
+            edge += part.size;
+        }
+        return all;
+    }
+
+    private static Edges parseHypernyms(ByteBuffer buf, int from, int to) {
+        Edges part = new Edges();
+        int capacity = Math.max(16, (to - from) / 8);
+        part.from = new int[capacity];
+        part.to = new int[capacity];
+
+        int pos = from;
+        while (pos < to) {
+            int end = lineEnd(buf, pos, to);
+            if (isBlank(buf, pos, end)) {
+                pos = end + 1;
+                continue;
+            }
+            int comma = indexOf(buf, ',', pos, end);
+            int id = parseInt(buf, pos, (comma == -1) ? end : comma);
+            while (comma != -1) {
+                int next = indexOf(buf, ',', comma + 1, end);
+                if (part.size == part.from.length) {
+                    part.from = Arrays.copyOf(part.from, 2 * part.size);
+                    part.to = Arrays.copyOf(part.to, 2 * part.size);
+                }
+                part.from[part.size] = id;
+                part.to[part.size] = parseInt(buf, comma + 1, (next == -1) ? end : next);
+                part.size++;
+                comma = next;
+            }
+            pos = end + 1;
+        }
+        return part;
+    }
+
+    /**
+     * Splits the buffer into one chunk per core, each ending just after a newline.
+     * 
+     * @return chunk boundaries; chunk i is {@code [bounds[i], bounds[i + 1])}
+     */
+    private static int[] chunks(ByteBuffer buf) {
+        final int length = buf.limit();
+        int k = (length < PARALLEL_THRESHOLD) ? 1 : Runtime.getRuntime().availableProcessors();
+        int[] bounds = new int[k + 1];
+        int count = 1;
+        for (int i = 1; i < k; i++) {
+            int pos = Math.max(bounds[count - 1], (int) ((long) length * i / k));
+            pos = lineEnd(buf, pos, length) + 1;
+            if (pos < length && pos > bounds[count - 1]) {
+                bounds[count++] = pos;
+            }
+        }
+        bounds[count] = length;
+        return Arrays.copyOf(bounds, count + 1);
+    }
+
+    /**
+     * @return index of the newline ending the line at {@code pos}, or {@code to}
+     */
+    private static int lineEnd(ByteBuffer buf, int pos, int to) {
+        while (pos < to && buf.get(pos) != '\n') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int indexOf(ByteBuffer buf, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf.get(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isBlank(ByteBuffer buf, int from, int to) {
+        return trimEnd(buf, from, to) == from;
+    }
+
+    /**
+     * @return end of {@code [from, to)} with trailing whitespace removed
+     */
+    private static int trimEnd(ByteBuffer buf, int from, int to) {
+        while (to > from && buf.get(to - 1) <= ' ') {
+            to--;
+        }
+        return to;
+    }
+
+    /**
+     * Parses a non-negative decimal int, ignoring surrounding whitespace.
+     */
+    private static int parseInt(ByteBuffer buf, int from, int to) {
+        while (from < to && buf.get(from) <= ' ') {
+            from++;
+        }
+        to = trimEnd(buf, from, to);
+        if (from == to) {
+            throw malformed(buf, from, to);
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = buf.get(i) - '0';
+            if (digit < 0 || digit > 9 || value > Integer.MAX_VALUE) {
+                throw malformed(buf, from, to);
+            }
+            value = 10 * value + digit;
+        }
+        if (value > Integer.MAX_VALUE) {
+            throw malformed(buf, from, to);
+        }
+        return (int) value;
+    }
+
+    private static IllegalArgumentException malformed(ByteBuffer buf, int from, int to) {
+        byte[] bytes = new byte[Math.min(to - from, 80)];
+        buf.get(from, bytes);
+        return new IllegalArgumentException(
+                String.format("malformed input near '%s'", new String(bytes, StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,342 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import edu.princeton.cs.algs4.StdOut;
+
+/**
+ * WordNetServer class.
+ * <p>
+ * A lightweight HTTP server for WordNet queries, bound to the loopback address
+ * only. Every handler shares one {@link WordNet} and one {@link Outcast}, which
+ * are safe for concurrent readers.
+ * <p>
+ * A request is one line of space-separated words:
+ * 
+ * <pre>
+ * isNoun noun             → true | false
+ * distance nounA nounB    → shortest ancestral path length
+ * sap nounA nounB         → synset of the shortest common ancestor
+ * outcast noun noun ...   → the outcast noun
+ * </pre>
+ * 
+ * {@code GET /query?q=<line>} answers a single request. {@code POST /query}
+ * answers a batch: any number of request lines in the body, answered by the
+ * same number of lines in the same order, so a whole batch takes one round
+ * trip. The distance requests of a batch are computed together through
+ * {@link WordNet#distances(List)}. A failed request is answered by
+ * {@code error: <message>} without failing the rest of its batch. Blank lines
+ * are skipped. Connections are kept alive, so clients may also pipeline
+ * requests over one connection. A POST body larger than
+ * {@link #MAX_BODY_BYTES} is refused with status 413.
+ * <p>
+ * Handlers run on virtual threads when the runtime has them (Java 21 and
+ * later), so a slow client only parks a cheap thread. The searches themselves
+ * are CPU-bound and reuse per-thread scratch arrays, which a virtual thread per
+ * request would allocate afresh, so handlers hand them to a fixed pool of
+ * platform threads, one per core, and wait. That pool also bounds how many
+ * searches run at once. On older runtimes the handlers run on that pool
+ * directly.
+ */
+public final class WordNetServer {
+    /**
+     * Largest POST body accepted, in bytes.
+     */
+    public static final int MAX_BODY_BYTES = 1 << 20;
+
+    private final WordNet wordnet;
+    private final Outcast outcast;
+    private final HttpServer server;
+
+    /**
+     * Threads running the handlers, and the per-core pool running the searches;
+     * the same pool if virtual threads are not available.
+     */
+    private final ExecutorService executor;
+    private final ExecutorService searches;
+
+    /**
+     * Creates a server on the loopback address; call {@link #start()} to accept
+     * connections.
+     * 
+     * @param wordnet - the WordNet to query
+     * @param port    - TCP port; 0 to pick a free one
+     */
+    public WordNetServer(WordNet wordnet, int port) {
+        if (wordnet == null) {
+            throw new IllegalArgumentException("wordnet is null!");
+        }
+        this.wordnet = wordnet;
+        this.outcast = new Outcast(wordnet);
+        try {
+            this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not bind port " + port, e);
+        }
+        this.searches = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread thread = new Thread(r, "wordnet-search");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ExecutorService virtual = newVirtualExecutor();
+        this.executor = (virtual != null) ? virtual : this.searches;
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/query", this::handle);
+    }
+
+    /**
+     * @return a virtual-thread-per-task executor; null if the runtime does not
+     *         support virtual threads
+     */
+    private static ExecutorService newVirtualExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Starts accepting connections.
+     */
+    public void start() {
+        this.server.start();
+    }
+
+    /**
+     * Stops accepting connections, waits up to {@code seconds} for running
+     * requests to finish, and shuts down the handler threads.
+     * 
+     * @param seconds - grace period for running requests
+     */
+    public void stop(int seconds) {
+        this.server.stop(seconds);
+        this.executor.shutdown();
+        this.searches.shutdown();
+    }
+
+    /**
+     * @return the port the server is bound to
+     */
+    public int port() {
+        return this.server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            List<String> lines;
+            if ("POST".equals(exchange.getRequestMethod())) {
+                String body = readBody(exchange);
+                if (body == null) {
+                    /* read past a bounded amount of the rest, so the client sees the answer instead of a reset */
+                    discard(exchange.getRequestBody(), 16L * MAX_BODY_BYTES);
+                    exchange.getResponseHeaders().set("Connection", "close");
+                    respond(exchange, 413, "error: request body is larger than " + MAX_BODY_BYTES + " bytes\n");
+                    return;
+                }
+                lines = Arrays.asList(body.split("\n"));
+            } else if ("GET".equals(exchange.getRequestMethod())) {
+                String query = exchange.getRequestURI().getRawQuery();
+                if (query == null || !query.startsWith("q=")) {
+                    respond(exchange, 400, "error: expected ?q=<request>\n");
+                    return;
+                }
+                lines = List.of(URLDecoder.decode(query.substring(2), StandardCharsets.UTF_8));
+            } else {
+                respond(exchange, 405, "error: use GET or POST\n");
+                return;
+            }
+
+            StringBuilder body = new StringBuilder();
+            for (String answer : this.answerOnSearchThread(lines)) {
+                body.append(answer).append('\n');
+            }
+            respond(exchange, 200, body.toString());
+        }
+    }
+
+    /**
+     * Answers a batch on the search pool, unless this already is one of its
+     * threads.
+     */
+    private List<String> answerOnSearchThread(List<String> lines) throws IOException {
+        if (this.executor == this.searches) {
+            return this.answer(lines);
+        }
+        try {
+            return this.searches.submit(() -> this.answer(lines)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while answering", e);
+        } catch (ExecutionException e) {
+            // answer() reports invalid requests itself, so anything else is a bug
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Answers a batch of request lines.
+     * 
+     * @param lines - request lines; blank ones are skipped
+     * @return one answer per non-blank line, in order
+     */
+    List<String> answer(List<String> lines) {
+        List<String[]> requests = new ArrayList<>();
+        for (String line : lines) {
+            String trimmed = line.trim();
+            if (!trimmed.isEmpty()) {
+                requests.add(trimmed.split("\\s+"));
+            }
+        }
+        String[] answers = new String[requests.size()];
+
+        /*
+         * answer the valid distance requests of the batch together; a request with
+         * an unknown noun is left to the loop below, so that only it reports an
+         * error
+         */
+        List<String[]> pairs = new ArrayList<>();
+        List<Integer> at = new ArrayList<>();
+        for (int i = 0; i < answers.length; i++) {
+            String[] request = requests.get(i);
+            if (request[0].equals("distance") && request.length == 3
+                    && this.wordnet.isNoun(request[1]) && this.wordnet.isNoun(request[2])) {
+                pairs.add(new String[] { request[1], request[2] });
+                at.add(i);
+            }
+        }
+        if (pairs.size() > 1) {
+            int[] distances = this.wordnet.distances(pairs);
+            for (int k = 0; k < distances.length; k++) {
+                answers[at.get(k)] = Integer.toString(distances[k]);
+            }
+        }
+
+        for (int i = 0; i < answers.length; i++) {
+            if (answers[i] == null) {
+                answers[i] = this.answer(requests.get(i));
+            }
+        }
+        return Arrays.asList(answers);
+    }
+
+    /**
+     * Answers one request.
+     */
+    private String answer(String[] request) {
+        try {
+            switch (request[0]) {
+                case "isNoun":
+                    expectArguments(request, 1);
+                    return Boolean.toString(this.wordnet.isNoun(request[1]));
+                case "distance":
+                    expectArguments(request, 2);
+                    return Integer.toString(this.wordnet.distance(request[1], request[2]));
+                case "sap":
+                    expectArguments(request, 2);
+                    String synset = this.wordnet.sap(request[1], request[2]);
+                    return (synset == null) ? "-" : synset;
+                case "outcast":
+                    if (request.length < 2) {
+                        throw new IllegalArgumentException("outcast takes at least one noun");
+                    }
+                    return this.outcast.outcast(Arrays.copyOfRange(request, 1, request.length));
+                default:
+                    throw new IllegalArgumentException("unknown request '" + request[0] + "'");
+            }
+        } catch (IllegalArgumentException e) {
+            return "error: " + e.getMessage();
+        }
+    }
+
+    private static void expectArguments(String[] request, int count) {
+        if (request.length != count + 1) {
+            throw new IllegalArgumentException(
+                    String.format("%s takes %d argument%s", request[0], count, (count == 1) ? "" : "s"));
+        }
+    }
+
+    /**
+     * Reads a request body of at most {@link #MAX_BODY_BYTES}, refusing a larger
+     * declared Content-Length before reading anything.
+     * 
+     * @return the body; null if it is too large
+     */
+    private static String readBody(HttpExchange exchange) throws IOException {
+        String declared = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (declared != null) {
+            try {
+                if (Long.parseLong(declared.trim()) > MAX_BODY_BYTES) {
+                    return null;
+                }
+            } catch (NumberFormatException e) {
+                // let the length of the body itself decide
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        InputStream in = exchange.getRequestBody();
+        byte[] chunk = new byte[8192];
+        for (int n = in.read(chunk); n != -1; n = in.read(chunk)) {
+            if (bytes.size() + n > MAX_BODY_BYTES) {
+                return null;
+            }
+            bytes.write(chunk, 0, n);
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads and drops at most {@code limit} bytes of {@code in}.
+     */
+    private static void discard(InputStream in, long limit) throws IOException {
+        byte[] chunk = new byte[8192];
+        for (long left = limit; left > 0; ) {
+            int n = in.read(chunk, 0, (int) Math.min(chunk.length, left));
+            if (n == -1) {
+                return;
+            }
+            left -= n;
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Serves a WordNet on localhost until the process is killed.
+     * Usage: {@code WordNetServer synsets.txt hypernyms.txt [port]}
+     * 
+     * @param args
+     */
+    public static void main(String[] args) {
+        WordNet wordnet = new WordNet(args[0], args[1]);
+        int port = (args.length > 2) ? Integer.parseInt(args[2]) : 8080;
+        WordNetServer server = new WordNetServer(wordnet, port);
+        server.start();
+        StdOut.printf("serving WordNet on http://localhost:%d/query\n", server.port());
+    }
+}
@@ -0,0 +1,252 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * WordNetSnapshot class.
+ * <p>
+ * Binary snapshot of a fully built WordNet, so that a process can start without
+ * re-parsing the text files. All values are big-endian; strings are an int
+ * byte count followed by UTF-8 bytes. The layout is:
+ * 
+ * <pre>
+ * int      magic "WNET"
+ * int      format version
+ * int      V, number of synsets
+ * int      E, number of hypernym edges
+ * int[V+1] CSR offsets of the hypernym digraph
+ * int[E]   CSR targets
+ * int      B, bytes of synset text
+ * byte[B]  UTF-8 text containing the synset string and gloss of each id
+ * int[4V]  byte ranges of each id's synset string and gloss in that text
+ * int      N, number of nouns
+ * N times: string noun
+ * int[N+1] start of each noun's synset ids, plus M, the total at the end
+ * int[M]   synset ids of all nouns
+ * long     CRC32 of every byte above
+ * </pre>
+ * 
+ * Loading memory-maps the file, verifies the checksum over the mapped bytes and
+ * bulk-reads the arrays. The synset text stays in the mapped file and is
+ * decoded on demand by the loaded {@link SynsetArena}. Writing copies the
+ * arena's bytes and ranges as they are, so no synset is decoded on the way;
+ * the text may hold more than the ranges use, such as the ids and commas of
+ * the synsets file it was read from. Writing never touches an existing
+ * snapshot in place: the new one is written to a temporary file in the same
+ * directory and renamed over the old one, so a WordNet still mapping the old
+ * file keeps reading its original contents.
+ */
+final class WordNetSnapshot {
+    private static final int MAGIC = 0x574e4554; // "WNET"
+    private static final int VERSION = 3;
+
+    private WordNetSnapshot() {
+    }
+
+    /**
+     * Contents of a loaded snapshot.
+     */
+    static final class Contents {
+        CsrDigraph digraph;
+        SynsetArena synsets;
+        NounIndex nouns;
+    }
+
+    /**
+     * Writes a snapshot, atomically replacing any existing file.
+     * 
+     * @param path    - file to write
+     * @param synsets - synset and gloss of each id
+     * @param nouns   - synset ids of each noun
+     * @param digraph - hypernym digraph
+     */
+    static void write(Path path, SynsetArena synsets, NounIndex nouns, CsrDigraph digraph) {
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName() + ".", ".tmp");
+            writeTo(temp, synsets, nouns, digraph);
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            temp = null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not write snapshot " + path, e);
+        } finally {
+            if (temp != null) {
+                temp.toFile().delete();
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot to a new file and forces it to disk.
+     */
+    private static void writeTo(Path path, SynsetArena synsets, NounIndex nouns, CsrDigraph digraph)
+            throws IOException {
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE);
+                OutputStream file = Channels.newOutputStream(channel);
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(new CheckedOutputStream(file, crc), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(digraph.V());
+            out.writeInt(digraph.E());
+            for (int offset : digraph.offsets) {
+                out.writeInt(offset);
+            }
+            for (int target : digraph.targets) {
+                out.writeInt(target);
+            }
+            writeText(out, synsets);
+            out.writeInt(nouns.size());
+            for (String noun : nouns.nounArray()) {
+                writeString(out, noun);
+            }
+            for (int start : nouns.idStartArray()) {
+                out.writeInt(start);
+            }
+            for (int id : nouns.idArray()) {
+                out.writeInt(id);
+            }
+            // the checksum itself is written past the checked stream
+            out.flush();
+            new DataOutputStream(file).writeLong(crc.getValue());
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Writes the arena's text as it is, already UTF-8, followed by the few
+     * synsets added since it was built, and then the bounds of every id.
+     */
+    private static void writeText(DataOutputStream out, SynsetArena synsets) throws IOException {
+        ByteBuffer text = synsets.textBuffer();
+        int[] bounds = synsets.boundArray();
+        String[] addedSynsets = synsets.addedSynsetArray(), addedGlosses = synsets.addedGlossArray();
+        byte[][] added = new byte[2 * addedSynsets.length][];
+        long size = text.limit();
+        for (int i = 0; i < addedSynsets.length; i++) {
+            added[2 * i] = addedSynsets[i].getBytes(StandardCharsets.UTF_8);
+            added[2 * i + 1] = addedGlosses[i].getBytes(StandardCharsets.UTF_8);
+            size += added[2 * i].length + added[2 * i + 1].length;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("synset text is too large for a snapshot!");
+        }
+
+        out.writeInt((int) size);
+        byte[] chunk = new byte[1 << 16];
+        while (text.hasRemaining()) {
+            int n = Math.min(chunk.length, text.remaining());
+            text.get(chunk, 0, n);
+            out.write(chunk, 0, n);
+        }
+        for (byte[] bytes : added) {
+            out.write(bytes);
+        }
+
+        for (int bound : bounds) {
+            out.writeInt(bound);
+        }
+        int offset = text.limit();
+        for (byte[] bytes : added) {
+            out.writeInt(offset);
+            offset += bytes.length;
+            out.writeInt(offset);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Loads and validates a snapshot.
+     * 
+     * @param path - file written by {@link #write}
+     * @return the snapshot contents
+     * @throws IllegalArgumentException if the file is not a valid snapshot
+     */
+    static Contents read(Path path) {
+        ByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not read snapshot " + path, e);
+        }
+
+        if (buf.limit() < 16 || buf.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException(path + " is not a WordNet snapshot!");
+        }
+        if (buf.getInt(4) != VERSION) {
+            throw new IllegalArgumentException(
+                    String.format("unsupported snapshot version %d in %s!", buf.getInt(4), path));
+        }
+        final int end = buf.limit() - 8;
+        CRC32 crc = new CRC32();
+        crc.update(buf.duplicate().position(0).limit(end));
+        if (crc.getValue() != buf.getLong(end)) {
+            throw new IllegalArgumentException(path + " is corrupt: checksum mismatch!");
+        }
+
+        try {
+            buf.position(8).limit(end);
+            Contents contents = new Contents();
+            final int vertices = buf.getInt();
+            final int edges = buf.getInt();
+            int[] offsets = readInts(buf, vertices + 1);
+            int[] targets = readInts(buf, edges);
+            contents.digraph = new CsrDigraph(offsets, targets);
+
+            final int textBytes = buf.getInt();
+            ByteBuffer text = buf.slice(buf.position(), textBytes);
+            buf.position(buf.position() + textBytes);
+            contents.synsets = new SynsetArena(text, readInts(buf, 4 * vertices));
+            String[] nouns = new String[buf.getInt()];
+            for (int i = 0; i < nouns.length; i++) {
+                nouns[i] = readString(buf);
+            }
+            int[] idStart = readInts(buf, nouns.length + 1);
+            int[] ids = readInts(buf, idStart[nouns.length]);
+            for (int id : ids) {
+                if (id < 0 || id >= vertices) {
+                    throw new IllegalArgumentException(path + " has a noun with an invalid synset id!");
+                }
+            }
+            contents.nouns = new NounIndex(nouns, idStart, ids);
+            if (buf.hasRemaining()) {
+                throw new IllegalArgumentException(path + " has trailing bytes!");
+            }
+            return contents;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IllegalArgumentException(path + " is truncated or malformed!", e);
+        }
+    }
+
+    private static int[] readInts(ByteBuffer buf, int count) {
+        int[] values = new int[count];
+        buf.asIntBuffer().get(values);
+        buf.position(buf.position() + 4 * count);
+        return values;
+    }
+
+    private static String readString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}